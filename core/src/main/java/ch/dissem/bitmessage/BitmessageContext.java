@@ -29,7 +29,10 @@ import ch.dissem.bitmessage.utils.TTL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
@@ -118,13 +121,17 @@ public class BitmessageContext {
 
     public List<BitmessageAddress> createDeterministicAddresses(
         String passphrase, int numberOfAddresses, long version, long stream, boolean shorter) {
-        List<BitmessageAddress> result = BitmessageAddress.deterministic(
-            passphrase, numberOfAddresses, version, stream, shorter);
-        for (int i = 0; i < result.size(); i++) {
-            BitmessageAddress address = result.get(i);
-            address.setAlias("deterministic (" + (i + 1) + ")");
-            ctx.getAddressRepository().save(address);
-        }
+        final List<BitmessageAddress> result = new ArrayList<>(numberOfAddresses);
+        // addresses are saved while the following ones are still being generated
+        PrivateKey.deterministic(passphrase, numberOfAddresses, version, stream, shorter, new PrivateKey.Callback() {
+            @Override
+            public void onPrivateKeyGenerated(PrivateKey privateKey) {
+                BitmessageAddress address = new BitmessageAddress(privateKey);
+                address.setAlias("deterministic (" + (result.size() + 1) + ")");
+                ctx.getAddressRepository().save(address);
+                result.add(address);
+            }
+        });
         return result;
     }
 
@@ -185,6 +192,13 @@ public class BitmessageContext {
 
     public void shutdown() {
         ctx.getNetworkHandler().stop();
+        if (ctx.getInventory() instanceof Closeable) {
+            try {
+                ((Closeable) ctx.getInventory()).close();
+            } catch (IOException e) {
+                LOG.error(e.getMessage(), e);
+            }
+        }
     }
 
     /**
@@ -317,9 +331,13 @@ public class BitmessageContext {
         Cryptography cryptography;
         CustomCommandHandler customCommandHandler;
         Labeler labeler;
+        TrialDecryption trialDecryption;
         Listener listener;
         int connectionLimit = 150;
         long connectionTTL = 30 * MINUTE;
+        int selectorThreads = Runtime.getRuntime().availableProcessors();
+        int compactIvCacheSize;
+        long trickleInterval = 1000;
         boolean sendPubkeyOnIdentityCreation = true;
 
         public Builder port(int port) {
@@ -377,6 +395,15 @@ public class BitmessageContext {
             return this;
         }
 
+        /**
+         * How to find out which identity a received msg object was sent to. By default, the identities are tried
+         * one after the other. Nodes with many identities might want to use {@link ParallelTrialDecryption}.
+         */
+        public Builder trialDecryption(TrialDecryption trialDecryption) {
+            this.trialDecryption = trialDecryption;
+            return this;
+        }
+
         public Builder listener(Listener listener) {
             this.listener = listener;
             return this;
@@ -392,6 +419,44 @@ public class BitmessageContext {
             return this;
         }
 
+        /**
+         * Number of threads the network handler may use to serve its connections, if it supports this. Defaults to
+         * the number of available processors, which is a good choice for nodes with many connections. On weak devices
+         * you might want to set it to 1.
+         */
+        public Builder selectorThreads(int threads) {
+            if (threads < 1) throw new IllegalArgumentException("At least one selector thread is needed");
+            this.selectorThreads = threads;
+            return this;
+        }
+
+        /**
+         * Connections remember which objects their node knows of for a few minutes, so they aren't offered to it
+         * again. By default the exact inventory vectors are kept, which needs about 100 bytes per object and
+         * connection. With this option set, Bloom filters are used instead, which need about 13 bits per object,
+         * but for about 1% of the objects a node is wrongly assumed to know of them, and they aren't offered to it.
+         *
+         * @param expectedObjectsPerMinute the number of objects a connection is expected to announce or be offered
+         *                                 per minute. If there are more, the rate of wrong assumptions increases.
+         */
+        public Builder compactIvCache(int expectedObjectsPerMinute) {
+            if (expectedObjectsPerMinute < 1) throw new IllegalArgumentException("Expected objects must be positive");
+            this.compactIvCacheSize = expectedObjectsPerMinute;
+            return this;
+        }
+
+        /**
+         * Objects offered to a node are collected and announced together in one 'inv' message after a random
+         * delay of about this many milliseconds, or as soon as there are enough for a full message. Longer intervals
+         * mean fewer and larger messages, but objects spread through the network more slowly. The default is one
+         * second, 0 announces every object right away.
+         */
+        public Builder trickleInterval(long millis) {
+            if (millis < 0) throw new IllegalArgumentException("Interval must not be negative");
+            this.trickleInterval = millis;
+            return this;
+        }
+
         /**
          * By default a client will send the public key when an identity is being created. On weaker devices
          * this behaviour might not be desirable.
@@ -431,6 +496,9 @@ public class BitmessageContext {
             if (labeler == null) {
                 labeler = new DefaultLabeler();
             }
+            if (trialDecryption == null) {
+                trialDecryption = new SequentialTrialDecryption();
+            }
             if (customCommandHandler == null) {
                 customCommandHandler = new CustomCommandHandler() {
                     @Override
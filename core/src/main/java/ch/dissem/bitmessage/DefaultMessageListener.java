@@ -125,18 +125,15 @@ class DefaultMessageListener implements NetworkHandler.MessageListener, Internal
     }
 
     protected void receive(ObjectMessage object, Msg msg) throws IOException {
-        for (BitmessageAddress identity : ctx.getAddressRepository().getIdentities()) {
-            try {
-                msg.decrypt(identity.getPrivateKey().getPrivateEncryptionKey());
-                Plaintext plaintext = msg.getPlaintext();
-                plaintext.setTo(identity);
-                if (!object.isSignatureValid(plaintext.getFrom().getPubkey())) {
-                    LOG.warn("Msg with IV " + object.getInventoryVector() + " was successfully decrypted, but signature check failed. Ignoring.");
-                } else {
-                    receive(object.getInventoryVector(), plaintext);
-                }
-                break;
-            } catch (DecryptionFailedException ignore) {
+        BitmessageAddress identity = ctx.getTrialDecryption().decrypt(msg,
+            ctx.getAddressRepository().getIdentities());
+        if (identity != null) {
+            Plaintext plaintext = msg.getPlaintext();
+            plaintext.setTo(identity);
+            if (!object.isSignatureValid(plaintext.getFrom().getPubkey())) {
+                LOG.warn("Msg with IV " + object.getInventoryVector() + " was successfully decrypted, but signature check failed. Ignoring.");
+            } else {
+                receive(object.getInventoryVector(), plaintext);
             }
         }
     }
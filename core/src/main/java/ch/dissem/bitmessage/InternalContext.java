@@ -19,6 +19,7 @@ package ch.dissem.bitmessage;
 import ch.dissem.bitmessage.entity.*;
 import ch.dissem.bitmessage.entity.payload.*;
 import ch.dissem.bitmessage.exception.ApplicationException;
+import ch.dissem.bitmessage.factory.Factory;
 import ch.dissem.bitmessage.ports.*;
 import ch.dissem.bitmessage.utils.Singleton;
 import ch.dissem.bitmessage.utils.TTL;
@@ -56,6 +57,7 @@ public class InternalContext {
     private final CustomCommandHandler customCommandHandler;
     private final ProofOfWorkService proofOfWorkService;
     private final Labeler labeler;
+    private final TrialDecryption trialDecryption;
     private final NetworkHandler.MessageListener networkListener;
 
     private final TreeSet<Long> streams = new TreeSet<>();
@@ -63,6 +65,9 @@ public class InternalContext {
     private final long clientNonce;
     private long connectionTTL;
     private int connectionLimit;
+    private int selectorThreads;
+    private int compactIvCacheSize;
+    private long trickleInterval;
 
     public InternalContext(BitmessageContext.Builder builder) {
         this.cryptography = builder.cryptography;
@@ -79,7 +84,11 @@ public class InternalContext {
         this.port = builder.port;
         this.connectionLimit = builder.connectionLimit;
         this.connectionTTL = builder.connectionTTL;
+        this.selectorThreads = builder.selectorThreads;
+        this.compactIvCacheSize = builder.compactIvCacheSize;
+        this.trickleInterval = builder.trickleInterval;
         this.labeler = builder.labeler;
+        this.trialDecryption = builder.trialDecryption;
         this.networkListener = new DefaultMessageListener(labeler, builder.listener);
 
         Singleton.initialize(cryptography);
@@ -151,6 +160,10 @@ public class InternalContext {
         return labeler;
     }
 
+    public TrialDecryption getTrialDecryption() {
+        return trialDecryption;
+    }
+
     public NetworkHandler.MessageListener getNetworkListener() {
         return networkListener;
     }
@@ -193,7 +206,8 @@ public class InternalContext {
                 object.sign(from.getPrivateKey());
             }
             if (payload instanceof Broadcast) {
-                ((Broadcast) payload).encrypt();
+                // broadcasts are encrypted with a key derived from the sender's address
+                object.encrypt(cryptography.createPublicKey(from.getPublicDecryptionKey()));
             } else if (payload instanceof Encrypted) {
                 object.encrypt(recipient.getPubkey());
             }
@@ -207,10 +221,14 @@ public class InternalContext {
         try {
             long expires = UnixTime.now(TTL.pubkey());
             LOG.info("Expires at " + expires);
+            // signing and encrypting changes the pubkey, so we must not use the identity's one, as it might be shared
+            Pubkey pubkey = identity.getPubkey();
             final ObjectMessage response = new ObjectMessage.Builder()
                 .stream(targetStream)
                 .expiresTime(expires)
-                .payload(identity.getPubkey())
+                .payload(Factory.createPubkey(pubkey.getVersion(), pubkey.getStream(),
+                    pubkey.getSigningKey(), pubkey.getEncryptionKey(),
+                    pubkey.getNonceTrialsPerByte(), pubkey.getExtraBytes(), pubkey.getBehaviorBitfield()))
                 .build();
             response.sign(identity.getPrivateKey());
             response.encrypt(cryptography.createPublicKey(identity.getPublicDecryptionKey()));
@@ -307,6 +325,25 @@ public class InternalContext {
         return connectionLimit;
     }
 
+    public int getSelectorThreads() {
+        return selectorThreads;
+    }
+
+    /**
+     * @return the expected number of entries per minute for the connections' Bloom filters, or 0 if they should
+     * keep the exact inventory vectors
+     */
+    public int getCompactIvCacheSize() {
+        return compactIvCacheSize;
+    }
+
+    /**
+     * @return the average time in milliseconds offered objects are collected before they're announced
+     */
+    public long getTrickleInterval() {
+        return trickleInterval;
+    }
+
     public CustomCommandHandler getCustomCommandHandler() {
         return customCommandHandler;
     }
@@ -62,7 +62,7 @@ public class ProofOfWorkService implements ProofOfWorkEngine.Callback, InternalC
         powRepo.putObject(object, nonceTrialsPerByte, extraBytes);
         if (object.getPayload() instanceof PlaintextHolder) {
             Plaintext plaintext = ((PlaintextHolder) object.getPayload()).getPlaintext();
-            plaintext.setInitialHash(cryptography.getInitialHash(object));
+            plaintext.setInitialHash(object.getInitialHash());
             messageRepo.save(plaintext);
         }
         cryptography.doProofOfWork(object, nonceTrialsPerByte, extraBytes, this);
@@ -136,6 +136,25 @@ public class BitmessageAddress implements Serializable {
         this.privateKey = privateKey;
     }
 
+    /**
+     * Creates a copy of <em>other</em> whose alias, pubkey and flags can be changed independently. The private key and
+     * pubkey instances are shared with <em>other</em>, so don't sign or encrypt them in place, but create a new pubkey
+     * (as {@link ch.dissem.bitmessage.InternalContext#sendPubkey(BitmessageAddress, long)} does).
+     */
+    public BitmessageAddress(BitmessageAddress other) {
+        this.version = other.version;
+        this.stream = other.stream;
+        this.ripe = other.ripe;
+        this.tag = other.tag;
+        this.publicDecryptionKey = other.publicDecryptionKey;
+        this.address = other.address;
+        this.privateKey = other.privateKey;
+        this.pubkey = other.pubkey;
+        this.alias = other.alias;
+        this.subscribed = other.subscribed;
+        this.chan = other.chan;
+    }
+
     public BitmessageAddress(String address) {
         try {
             this.address = address;
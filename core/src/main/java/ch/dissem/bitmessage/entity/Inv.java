@@ -31,6 +31,8 @@ import java.util.List;
 public class Inv implements MessagePayload {
     private static final long serialVersionUID = 3662992522956947145L;
 
+    public static final int MAX_INVENTORY_SIZE = 50_000;
+
     private List<InventoryVector> inventory;
 
     private Inv(Builder builder) {
@@ -53,6 +53,11 @@ public class ObjectMessage implements MessagePayload {
     private ObjectPayload payload;
     private byte[] payloadBytes;
 
+    // Hashes are cached as they're needed several times while an object is processed.
+    // They must be reset whenever the nonce or the payload changes.
+    private transient InventoryVector inventoryVector;
+    private transient byte[] initialHash;
+
     private ObjectMessage(Builder builder) {
         nonce = builder.nonce;
         expiresTime = builder.expiresTime;
@@ -60,6 +65,7 @@ public class ObjectMessage implements MessagePayload {
         version = builder.payload.getVersion();
         stream = builder.streamNumber > 0 ? builder.streamNumber : builder.payload.getStream();
         payload = builder.payload;
+        inventoryVector = builder.inventoryVector;
     }
 
     @Override
@@ -73,6 +79,7 @@ public class ObjectMessage implements MessagePayload {
 
     public void setNonce(byte[] nonce) {
         this.nonce = nonce;
+        this.inventoryVector = null;
     }
 
     public long getExpiresTime() {
@@ -96,9 +103,23 @@ public class ObjectMessage implements MessagePayload {
     }
 
     public InventoryVector getInventoryVector() {
-        return new InventoryVector(
-                Bytes.truncate(cryptography().doubleSha512(nonce, getPayloadBytesWithoutNonce()), 32)
-        );
+        if (inventoryVector == null) {
+            inventoryVector = new InventoryVector(
+                    Bytes.truncate(cryptography().doubleSha512(nonce, getPayloadBytesWithoutNonce()), 32)
+            );
+        }
+        return inventoryVector;
+    }
+
+    /**
+     * @return the hash of the payload without nonce, used to calculate and check the proof of work.
+     * The returned array must not be modified.
+     */
+    public byte[] getInitialHash() {
+        if (initialHash == null) {
+            initialHash = cryptography().getInitialHash(this);
+        }
+        return initialHash;
     }
 
     private boolean isEncrypted() {
@@ -123,6 +144,7 @@ public class ObjectMessage implements MessagePayload {
     public void sign(PrivateKey key) {
         if (payload.isSigned()) {
             payload.setSignature(cryptography().getSignature(getBytesToSign(), key));
+            payloadChanged();
         }
     }
 
@@ -141,6 +163,7 @@ public class ObjectMessage implements MessagePayload {
     public void encrypt(byte[] publicEncryptionKey) throws IOException {
         if (payload instanceof Encrypted) {
             ((Encrypted) payload).encrypt(publicEncryptionKey);
+            payloadChanged();
         }
     }
 
@@ -148,6 +171,7 @@ public class ObjectMessage implements MessagePayload {
         try {
             if (payload instanceof Encrypted) {
                 ((Encrypted) payload).encrypt(publicKey.getEncryptionKey());
+                payloadChanged();
             }
         } catch (IOException e) {
             throw new ApplicationException(e);
@@ -200,12 +224,19 @@ public class ObjectMessage implements MessagePayload {
         }
     }
 
+    private void payloadChanged() {
+        payloadBytes = null;
+        inventoryVector = null;
+        initialHash = null;
+    }
+
     public static final class Builder {
         private byte[] nonce;
         private long expiresTime;
         private long objectType = -1;
         private long streamNumber;
         private ObjectPayload payload;
+        private InventoryVector inventoryVector;
 
         public Builder nonce(byte[] nonce) {
             this.nonce = nonce;
@@ -239,6 +270,15 @@ public class ObjectMessage implements MessagePayload {
             return this;
         }
 
+        /**
+         * For objects read from the network, the inventory vector can be calculated from the received bytes
+         * before the object is parsed. It must match the object, as it won't be checked.
+         */
+        public Builder inventoryVector(InventoryVector inventoryVector) {
+            this.inventoryVector = inventoryVector;
+            return this;
+        }
+
         public ObjectMessage build() {
             return new ObjectMessage(this);
         }
@@ -40,6 +40,8 @@ public class CryptoBox implements Streamable {
     private final byte[] R;
     private final byte[] mac;
     private byte[] encrypted;
+    // IV + curve type + R, the part of the MAC data that precedes the cipher text
+    private transient volatile byte[] macHeader;
 
 
     public CryptoBox(Streamable data, byte[] K) throws IOException {
@@ -120,21 +122,32 @@ public class CryptoBox implements Streamable {
         return new ByteArrayInputStream(cryptography().crypt(false, encrypted, key_e, initializationVector));
     }
 
+    /**
+     * The MAC data is the same for every key that is tried, so the header is only serialized once, and the
+     * cipher text isn't copied at all.
+     */
     private byte[] calculateMac(byte[] key_m) {
-        try {
-            ByteArrayOutputStream macData = new ByteArrayOutputStream();
-            writeWithoutMAC(macData);
-            return cryptography().mac(key_m, macData.toByteArray());
-        } catch (IOException e) {
-            throw new ApplicationException(e);
+        return cryptography().mac(key_m, getMacHeader(), encrypted);
+    }
+
+    private byte[] getMacHeader() {
+        if (macHeader == null) {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(16 + 2 + 2 * (2 + 32));
+                out.write(initializationVector);
+                Encode.int16(curveType, out);
+                writeCoordinateComponent(out, Points.getX(R));
+                writeCoordinateComponent(out, Points.getY(R));
+                macHeader = out.toByteArray();
+            } catch (IOException e) {
+                throw new ApplicationException(e);
+            }
         }
+        return macHeader;
     }
 
     private void writeWithoutMAC(OutputStream out) throws IOException {
-        out.write(initializationVector);
-        Encode.int16(curveType, out);
-        writeCoordinateComponent(out, Points.getX(R));
-        writeCoordinateComponent(out, Points.getY(R));
+        out.write(getMacHeader());
         out.write(encrypted);
     }
 
@@ -145,13 +158,6 @@ public class CryptoBox implements Streamable {
         out.write(x, offset, length);
     }
 
-    private void writeCoordinateComponent(ByteBuffer buffer, byte[] x) {
-        int offset = Bytes.numberOfLeadingZeros(x);
-        int length = x.length - offset;
-        Encode.int16(length, buffer);
-        buffer.put(x, offset, length);
-    }
-
     @Override
     public void write(OutputStream stream) throws IOException {
         writeWithoutMAC(stream);
@@ -160,10 +166,7 @@ public class CryptoBox implements Streamable {
 
     @Override
     public void write(ByteBuffer buffer) {
-        buffer.put(initializationVector);
-        Encode.int16(curveType, buffer);
-        writeCoordinateComponent(buffer, Points.getX(R));
-        writeCoordinateComponent(buffer, Points.getY(R));
+        buffer.put(getMacHeader());
         buffer.put(encrypted);
         buffer.put(mac);
     }
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.entity.valueobject;
+
+import ch.dissem.bitmessage.entity.payload.Pubkey;
+import ch.dissem.bitmessage.exception.ApplicationException;
+import ch.dissem.bitmessage.utils.Bytes;
+import ch.dissem.bitmessage.utils.Encode;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static ch.dissem.bitmessage.entity.valueobject.PrivateKey.PRIVATE_KEY_SIZE;
+import static ch.dissem.bitmessage.utils.Singleton.cryptography;
+import static ch.dissem.bitmessage.utils.ThreadFactoryBuilder.pool;
+
+/**
+ * Searches for key pairs whose ripe starts with one (or, for shorter addresses, two) zero bytes, using all
+ * available cores.
+ * <p>
+ * Deterministic searches try the nonce pairs <code>(n, n+1), (n+2, n+3), ...</code> and always return the
+ * first pair that matches, no matter which thread found it, so they yield the same keys as a single threaded
+ * search would.
+ * </p>
+ * <p>
+ * To generate many deterministic keys, a {@link Sequence} keeps searching ahead while the previous keys are
+ * being processed.
+ * </p>
+ */
+class KeySearch {
+    private static final int LOOKAHEAD_PER_THREAD = 64;
+    private static final Object NO_MATCH = new Object();
+
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(pool("key-search").daemon().build());
+    static final KeySearch DEFAULT = new KeySearch(Runtime.getRuntime().availableProcessors());
+
+    private final int threads;
+
+    KeySearch(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("At least one thread is needed");
+        this.threads = threads;
+    }
+
+    /**
+     * @return a random key pair with a suitable ripe
+     */
+    Candidate random(final boolean shorter) {
+        final AtomicReference<Candidate> result = new AtomicReference<>();
+        final AtomicBoolean failed = new AtomicBoolean();
+        run(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (result.get() == null && !failed.get()) {
+                        Candidate candidate = new Candidate(
+                            cryptography().randomBytes(PRIVATE_KEY_SIZE),
+                            cryptography().randomBytes(PRIVATE_KEY_SIZE),
+                            0);
+                        if (candidate.matches(shorter)) {
+                            result.compareAndSet(null, candidate);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    failed.set(true);
+                    throw e;
+                }
+            }
+        });
+        return result.get();
+    }
+
+    /**
+     * @param seed       the passphrase
+     * @param firstNonce the signing key nonce of the first pair to try
+     * @return the first key pair from <em>firstNonce</em> on that has a suitable ripe
+     */
+    Candidate deterministic(final byte[] seed, final long firstNonce, final boolean shorter) {
+        final AtomicLong firstMatch = new AtomicLong(Long.MAX_VALUE);
+        final ConcurrentMap<Long, Candidate> matches = new ConcurrentHashMap<>();
+        final AtomicLong next = new AtomicLong();
+        run(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // a thread can stop as soon as all pairs it would try come after a match
+                    for (long i = next.getAndIncrement(); i < firstMatch.get(); i = next.getAndIncrement()) {
+                        Candidate candidate = Candidate.deterministic(seed, firstNonce + 2 * i);
+                        if (candidate.matches(shorter)) {
+                            matches.put(i, candidate);
+                            long current;
+                            do {
+                                current = firstMatch.get();
+                            } while (i < current && !firstMatch.compareAndSet(current, i));
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    firstMatch.set(-1);
+                    throw e;
+                }
+            }
+        });
+        return matches.get(firstMatch.get());
+    }
+
+    /**
+     * @param seed       the passphrase
+     * @param firstNonce the signing key nonce of the first pair to try
+     * @return all key pairs with a suitable ripe from <em>firstNonce</em> on, in order. It must be closed to
+     * stop the search.
+     */
+    Sequence deterministicSequence(byte[] seed, long firstNonce, boolean shorter) {
+        return new Sequence(seed, firstNonce, shorter);
+    }
+
+    /**
+     * Runs the task on the calling thread and, if there is more than one thread configured, on additional worker
+     * threads, and waits until all of them are done.
+     */
+    private void run(Runnable task) {
+        List<Future<?>> futures = new ArrayList<>(threads - 1);
+        for (int i = 1; i < threads; i++) {
+            futures.add(WORKERS.submit(task));
+        }
+        task.run();
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApplicationException(e);
+        } catch (ExecutionException e) {
+            throw new ApplicationException(e.getCause());
+        }
+    }
+
+    /**
+     * The worker threads check nonce pairs ahead of the consumer, but never more than
+     * <code>LOOKAHEAD_PER_THREAD * threads</code> pairs, so an unused sequence doesn't keep the CPU busy.
+     */
+    class Sequence implements Iterator<Candidate>, AutoCloseable {
+        private final byte[] seed;
+        private final long firstNonce;
+        private final boolean shorter;
+        private final int lookahead = LOOKAHEAD_PER_THREAD * threads;
+
+        // guarded by this
+        private final Map<Long, Object> results = new HashMap<>();
+        private long next;
+        private long position;
+        private boolean closed;
+        private RuntimeException failure;
+
+        private Sequence(byte[] seed, long firstNonce, boolean shorter) {
+            this.seed = seed;
+            this.firstNonce = firstNonce;
+            this.shorter = shorter;
+            for (int i = 0; i < threads; i++) {
+                WORKERS.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        work();
+                    }
+                });
+            }
+        }
+
+        private void work() {
+            try {
+                long i;
+                while ((i = claim()) >= 0) {
+                    Candidate candidate = Candidate.deterministic(seed, firstNonce + 2 * i);
+                    Object result = candidate.matches(shorter) ? candidate : NO_MATCH;
+                    synchronized (this) {
+                        results.put(i, result);
+                        notifyAll();
+                    }
+                }
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    failure = e;
+                    closed = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * @return the next pair to try, or -1 if the sequence was closed.
+         */
+        private synchronized long claim() {
+            try {
+                while (!closed && next >= position + lookahead) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                closed = true;
+            }
+            return closed ? -1 : next++;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return true;
+        }
+
+        /**
+         * Blocks until the next key pair is found.
+         */
+        @Override
+        public synchronized Candidate next() {
+            try {
+                while (true) {
+                    Object result;
+                    while ((result = results.remove(position)) == null) {
+                        if (failure != null) throw new ApplicationException(failure);
+                        if (closed) throw new IllegalStateException("Sequence was closed");
+                        wait();
+                    }
+                    position++;
+                    notifyAll();
+                    if (result != NO_MATCH) {
+                        return (Candidate) result;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ApplicationException(e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+    }
+
+    static class Candidate {
+        final byte[] privateSigningKey;
+        final byte[] privateEncryptionKey;
+        final byte[] publicSigningKey;
+        final byte[] publicEncryptionKey;
+        /**
+         * The signing key nonce for the next deterministic search.
+         */
+        final long nextNonce;
+
+        Candidate(byte[] privateSigningKey, byte[] privateEncryptionKey, long nextNonce) {
+            this.privateSigningKey = privateSigningKey;
+            this.privateEncryptionKey = privateEncryptionKey;
+            this.publicSigningKey = cryptography().createPublicKey(privateSigningKey);
+            this.publicEncryptionKey = cryptography().createPublicKey(privateEncryptionKey);
+            this.nextNonce = nextNonce;
+        }
+
+        static Candidate deterministic(byte[] seed, long signingKeyNonce) {
+            return new Candidate(
+                Bytes.truncate(cryptography().sha512(seed, Encode.varInt(signingKeyNonce)), 32),
+                Bytes.truncate(cryptography().sha512(seed, Encode.varInt(signingKeyNonce + 1)), 32),
+                signingKeyNonce + 2);
+        }
+
+        boolean matches(boolean shorter) {
+            byte[] ripe = Pubkey.getRipe(publicSigningKey, publicEncryptionKey);
+            return ripe[0] == 0 && (!shorter || ripe[1] == 0);
+        }
+    }
+}
@@ -22,7 +22,6 @@ import ch.dissem.bitmessage.entity.Streamable;
 import ch.dissem.bitmessage.entity.payload.Pubkey;
 import ch.dissem.bitmessage.exception.ApplicationException;
 import ch.dissem.bitmessage.factory.Factory;
-import ch.dissem.bitmessage.utils.Bytes;
 import ch.dissem.bitmessage.utils.Decode;
 import ch.dissem.bitmessage.utils.Encode;
 
@@ -31,8 +30,6 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
-import static ch.dissem.bitmessage.utils.Singleton.cryptography;
-
 /**
  * Represents a private key. Additional information (stream, version, features, ...) is stored in the accompanying
  * {@link Pubkey} object.
@@ -47,23 +44,21 @@ public class PrivateKey implements Streamable {
 
     private final Pubkey pubkey;
 
+    /**
+     * Creates a new random private key. The search for keys with a suitable ripe is spread over all
+     * available cores.
+     */
     public PrivateKey(boolean shorter, long stream, long nonceTrialsPerByte, long extraBytes, Pubkey.Feature... features) {
-        byte[] privSK;
-        byte[] pubSK;
-        byte[] privEK;
-        byte[] pubEK;
-        byte[] ripe;
-        do {
-            privSK = cryptography().randomBytes(PRIVATE_KEY_SIZE);
-            privEK = cryptography().randomBytes(PRIVATE_KEY_SIZE);
-            pubSK = cryptography().createPublicKey(privSK);
-            pubEK = cryptography().createPublicKey(privEK);
-            ripe = Pubkey.getRipe(pubSK, pubEK);
-        } while (ripe[0] != 0 || (shorter && ripe[1] != 0));
-        this.privateSigningKey = privSK;
-        this.privateEncryptionKey = privEK;
-        this.pubkey = cryptography().createPubkey(Pubkey.LATEST_VERSION, stream, privateSigningKey, privateEncryptionKey,
-                nonceTrialsPerByte, extraBytes, features);
+        this(KeySearch.DEFAULT, shorter, stream, nonceTrialsPerByte, extraBytes, features);
+    }
+
+    PrivateKey(KeySearch search, boolean shorter, long stream, long nonceTrialsPerByte, long extraBytes,
+               Pubkey.Feature... features) {
+        KeySearch.Candidate keys = search.random(shorter);
+        this.privateSigningKey = keys.privateSigningKey;
+        this.privateEncryptionKey = keys.privateEncryptionKey;
+        this.pubkey = Factory.createPubkey(Pubkey.LATEST_VERSION, stream, keys.publicSigningKey,
+                keys.publicEncryptionKey, nonceTrialsPerByte, extraBytes, features);
     }
 
     public PrivateKey(byte[] privateSigningKey, byte[] privateEncryptionKey, Pubkey pubkey) {
@@ -77,28 +72,31 @@ public class PrivateKey implements Streamable {
     }
 
     public PrivateKey(long version, long stream, String passphrase) {
-        this(new Builder(version, stream, false).seed(passphrase).generate());
+        this(new Builder(KeySearch.DEFAULT, version, stream, false).seed(passphrase).generate());
     }
 
     private PrivateKey(Builder builder) {
-        this.privateSigningKey = builder.privSK;
-        this.privateEncryptionKey = builder.privEK;
-        this.pubkey = Factory.createPubkey(builder.version, builder.stream, builder.pubSK, builder.pubEK,
+        this(builder.version, builder.stream, builder.keys);
+    }
+
+    private PrivateKey(long version, long stream, KeySearch.Candidate keys) {
+        this.privateSigningKey = keys.privateSigningKey;
+        this.privateEncryptionKey = keys.privateEncryptionKey;
+        this.pubkey = Factory.createPubkey(version, stream, keys.publicSigningKey, keys.publicEncryptionKey,
                 InternalContext.NETWORK_NONCE_TRIALS_PER_BYTE, InternalContext.NETWORK_EXTRA_BYTES);
     }
 
     private static class Builder {
+        final KeySearch search;
         final long version;
         final long stream;
         final boolean shorter;
 
         byte[] seed;
-        long nextNonce;
+        KeySearch.Candidate keys;
 
-        byte[] privSK, privEK;
-        byte[] pubSK, pubEK;
-
-        private Builder(long version, long stream, boolean shorter) {
+        private Builder(KeySearch search, long version, long stream, boolean shorter) {
+            this.search = search;
             this.version = version;
             this.stream = stream;
             this.shorter = shorter;
@@ -114,34 +112,51 @@ public class PrivateKey implements Streamable {
         }
 
         Builder generate() {
-            long signingKeyNonce = nextNonce;
-            long encryptionKeyNonce = nextNonce + 1;
-            byte[] ripe;
-            do {
-                privEK = Bytes.truncate(cryptography().sha512(seed, Encode.varInt(encryptionKeyNonce)), 32);
-                privSK = Bytes.truncate(cryptography().sha512(seed, Encode.varInt(signingKeyNonce)), 32);
-                pubSK = cryptography().createPublicKey(privSK);
-                pubEK = cryptography().createPublicKey(privEK);
-                ripe = cryptography().ripemd160(cryptography().sha512(pubSK, pubEK));
-
-                signingKeyNonce += 2;
-                encryptionKeyNonce += 2;
-            } while (ripe[0] != 0 || (shorter && ripe[1] != 0));
-            nextNonce = signingKeyNonce;
+            keys = search.deterministic(seed, 0, shorter);
             return this;
         }
     }
 
     public static List<PrivateKey> deterministic(String passphrase, int numberOfAddresses, long version, long stream, boolean shorter) {
-        List<PrivateKey> result = new ArrayList<>(numberOfAddresses);
-        Builder builder = new Builder(version, stream, shorter).seed(passphrase);
-        for (int i = 0; i < numberOfAddresses; i++) {
-            builder.generate();
-            result.add(new PrivateKey(builder));
-        }
+        final List<PrivateKey> result = new ArrayList<>(numberOfAddresses);
+        deterministic(passphrase, numberOfAddresses, version, stream, shorter, new Callback() {
+            @Override
+            public void onPrivateKeyGenerated(PrivateKey privateKey) {
+                result.add(privateKey);
+            }
+        });
         return result;
     }
 
+    /**
+     * Generates deterministic private keys and hands them to the callback one by one, in the same order
+     * {@link #deterministic(String, int, long, long, boolean)} would return them. While the callback handles a
+     * key, the search for the following ones continues in the background.
+     */
+    public static void deterministic(String passphrase, int numberOfAddresses, long version, long stream,
+                                     boolean shorter, Callback callback) {
+        deterministic(KeySearch.DEFAULT, passphrase, numberOfAddresses, version, stream, shorter, callback);
+    }
+
+    static void deterministic(KeySearch search, String passphrase, int numberOfAddresses, long version,
+                              long stream, boolean shorter, Callback callback) {
+        Builder builder = new Builder(search, version, stream, shorter).seed(passphrase);
+        if (numberOfAddresses == 1) {
+            // there's nothing to pipeline, so let the calling thread help with the search
+            callback.onPrivateKeyGenerated(new PrivateKey(builder.generate()));
+            return;
+        }
+        try (KeySearch.Sequence keys = search.deterministicSequence(builder.seed, 0, shorter)) {
+            for (int i = 0; i < numberOfAddresses; i++) {
+                callback.onPrivateKeyGenerated(new PrivateKey(version, stream, keys.next()));
+            }
+        }
+    }
+
+    public interface Callback {
+        void onPrivateKeyGenerated(PrivateKey privateKey);
+    }
+
     public static PrivateKey read(InputStream is) throws IOException {
         int version = (int) Decode.varInt(is);
         long stream = Decode.varInt(is);
@@ -16,13 +16,16 @@
 
 package ch.dissem.bitmessage.factory;
 
+import ch.dissem.bitmessage.utils.Property;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
-import java.util.Map;
-import java.util.Stack;
-import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static ch.dissem.bitmessage.ports.NetworkHandler.HEADER_SIZE;
 import static ch.dissem.bitmessage.ports.NetworkHandler.MAX_PAYLOAD_SIZE;
@@ -30,31 +33,78 @@ import static ch.dissem.bitmessage.ports.NetworkHandler.MAX_PAYLOAD_SIZE;
 /**
  * A pool for {@link ByteBuffer}s. As they may use up a lot of memory,
  * they should be reused as efficiently as possible.
+ * <p>
+ * Each thread keeps one buffer per size class up to {@value #MAX_THREAD_CACHED_SIZE} bytes for itself, as
+ * buffers are usually returned by the same selector thread that took them. All other free buffers are shared,
+ * but only up to about {@value #MAX_RETAINED_PER_SIZE} bytes per size class; further buffers are left to the
+ * garbage collector.
+ * </p>
  */
-class BufferPool {
+public class BufferPool {
     private static final Logger LOG = LoggerFactory.getLogger(BufferPool.class);
 
+    private static final int[] SIZES = {
+        HEADER_SIZE, 54, 1000, 2000, 4000, 8000, 16000, 32000, 60000,
+        125000, 250000, 500000, 1000000, MAX_PAYLOAD_SIZE
+    };
+    private static final int MAX_THREAD_CACHED_SIZE = 60000;
+    private static final int MAX_RETAINED_PER_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_BUFFERS_PER_SIZE = 1024;
+
     public static final BufferPool bufferPool = new BufferPool();
 
-    private final Map<Integer, Stack<ByteBuffer>> pools = new TreeMap<>();
+    private final SizeClass[] sizeClasses = new SizeClass[SIZES.length];
+    private final ThreadLocal<ByteBuffer[]> threadCache = new ThreadLocal<ByteBuffer[]>() {
+        @Override
+        protected ByteBuffer[] initialValue() {
+            return new ByteBuffer[SIZES.length];
+        }
+    };
+    private volatile boolean direct;
+
+    private final AtomicLong threadCacheHits = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong retainedBytes = new AtomicLong();
 
-    private BufferPool() {
-        pools.put(HEADER_SIZE, new Stack<ByteBuffer>());
-        pools.put(54, new Stack<ByteBuffer>());
-        pools.put(1000, new Stack<ByteBuffer>());
-        pools.put(60000, new Stack<ByteBuffer>());
-        pools.put(MAX_PAYLOAD_SIZE, new Stack<ByteBuffer>());
+    BufferPool() {
+        for (int i = 0; i < SIZES.length; i++) {
+            sizeClasses[i] = new SizeClass(SIZES[i]);
+        }
     }
 
-    public synchronized ByteBuffer allocate(int capacity) {
-        Integer targetSize = getTargetSize(capacity);
-        Stack<ByteBuffer> pool = pools.get(targetSize);
-        if (pool.isEmpty()) {
-            LOG.trace("Creating new buffer of size " + targetSize);
-            return ByteBuffer.allocate(targetSize);
-        } else {
-            return pool.pop();
+    /**
+     * Direct buffers avoid a copy when reading from or writing to a channel, but they're more expensive to
+     * create and aren't accounted for in the heap. Only buffers created after this call are affected.
+     */
+    public void setDirect(boolean direct) {
+        this.direct = direct;
+    }
+
+    /**
+     * @return a cleared buffer with a capacity of at least the requested size
+     */
+    public ByteBuffer allocate(int capacity) {
+        int index = getSizeClass(capacity);
+        ByteBuffer[] cache = threadCache.get();
+        ByteBuffer buffer = cache[index];
+        if (buffer != null) {
+            cache[index] = null;
+            threadCacheHits.incrementAndGet();
+            return buffer;
         }
+        SizeClass sizeClass = sizeClasses[index];
+        buffer = sizeClass.buffers.poll();
+        if (buffer != null) {
+            sizeClass.count.decrementAndGet();
+            retainedBytes.addAndGet(-sizeClass.size);
+            hits.incrementAndGet();
+            return buffer;
+        }
+        misses.incrementAndGet();
+        LOG.trace("Creating new buffer of size " + sizeClass.size);
+        return direct ? ByteBuffer.allocateDirect(sizeClass.size) : ByteBuffer.allocate(sizeClass.size);
     }
 
     /**
@@ -62,31 +112,69 @@ class BufferPool {
      *
      * @return a buffer of size 24
      */
-    public synchronized ByteBuffer allocateHeaderBuffer() {
-        Stack<ByteBuffer> pool = pools.get(HEADER_SIZE);
-        if (pool.isEmpty()) {
-            return ByteBuffer.allocate(HEADER_SIZE);
-        } else {
-            return pool.pop();
-        }
+    public ByteBuffer allocateHeaderBuffer() {
+        return allocate(HEADER_SIZE);
     }
 
-    public synchronized void deallocate(ByteBuffer buffer) {
-        buffer.clear();
-        Stack<ByteBuffer> pool = pools.get(buffer.capacity());
-        if (pool == null) {
+    public void deallocate(ByteBuffer buffer) {
+        int index = Arrays.binarySearch(SIZES, buffer.capacity());
+        if (index < 0) {
             throw new IllegalArgumentException("Illegal buffer capacity " + buffer.capacity() +
-                " one of " + pools.keySet() + " expected.");
+                " one of " + Arrays.toString(SIZES) + " expected.");
+        }
+        buffer.clear();
+        SizeClass sizeClass = sizeClasses[index];
+        if (sizeClass.size <= MAX_THREAD_CACHED_SIZE) {
+            ByteBuffer[] cache = threadCache.get();
+            if (cache[index] == null) {
+                cache[index] = buffer;
+                return;
+            }
+        }
+        if (sizeClass.count.incrementAndGet() <= sizeClass.maxBuffers) {
+            retainedBytes.addAndGet(sizeClass.size);
+            sizeClass.buffers.offer(buffer);
         } else {
-            pool.push(buffer);
+            sizeClass.count.decrementAndGet();
+            discarded.incrementAndGet();
         }
     }
 
-    private Integer getTargetSize(int capacity) {
-        for (Integer size : pools.keySet()) {
-            if (size >= capacity) return size;
+    /**
+     * @return statistics about the pool. Buffers cached by threads aren't included in the retained bytes.
+     */
+    public Property getStatus() {
+        Property[] pooled = new Property[SIZES.length];
+        for (int i = 0; i < SIZES.length; i++) {
+            pooled[i] = new Property(String.valueOf(SIZES[i]), sizeClasses[i].count.get());
+        }
+        return new Property("bufferPool", direct ? "direct" : "heap",
+            new Property("threadCacheHits", threadCacheHits.get()),
+            new Property("hits", hits.get()),
+            new Property("misses", misses.get()),
+            new Property("discarded", discarded.get()),
+            new Property("retainedBytes", retainedBytes.get()),
+            new Property("pooled", null, pooled)
+        );
+    }
+
+    private static int getSizeClass(int capacity) {
+        for (int i = 0; i < SIZES.length; i++) {
+            if (SIZES[i] >= capacity) return i;
         }
         throw new IllegalArgumentException("Requested capacity too large: " +
             "requested=" + capacity + "; max=" + MAX_PAYLOAD_SIZE);
     }
+
+    private static class SizeClass {
+        private final int size;
+        private final int maxBuffers;
+        private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger count = new AtomicInteger();
+
+        private SizeClass(int size) {
+            this.size = size;
+            this.maxBuffers = Math.max(2, Math.min(MAX_BUFFERS_PER_SIZE, MAX_RETAINED_PER_SIZE / size));
+        }
+    }
 }
@@ -63,6 +63,14 @@ class V3MessageFactory {
     }
 
     static MessagePayload getPayload(String command, InputStream stream, int length) throws IOException {
+        return getPayload(command, stream, length, null);
+    }
+
+    /**
+     * @param inventoryVector if known, the inventory vector of an object, calculated from the received bytes
+     */
+    static MessagePayload getPayload(String command, InputStream stream, int length,
+                                     InventoryVector inventoryVector) throws IOException {
         switch (command) {
             case "version":
                 return parseVersion(stream);
@@ -75,7 +83,7 @@ class V3MessageFactory {
             case "getdata":
                 return parseGetData(stream);
             case "object":
-                return readObject(stream, length);
+                return readObject(stream, length, inventoryVector);
             case "custom":
                 return readCustom(stream, length);
             default:
@@ -89,6 +97,11 @@ class V3MessageFactory {
     }
 
     public static ObjectMessage readObject(InputStream in, int length) throws IOException {
+        return readObject(in, length, null);
+    }
+
+    private static ObjectMessage readObject(InputStream in, int length, InventoryVector inventoryVector)
+        throws IOException {
         AccessCounter counter = new AccessCounter();
         byte nonce[] = Decode.bytes(in, 8, counter);
         long expiresTime = Decode.int64(in, counter);
@@ -112,6 +125,7 @@ class V3MessageFactory {
             .objectType(objectType)
             .stream(stream)
             .payload(payload)
+            .inventoryVector(inventoryVector)
             .build();
     }
 
@@ -18,26 +18,52 @@ package ch.dissem.bitmessage.factory;
 
 import ch.dissem.bitmessage.entity.MessagePayload;
 import ch.dissem.bitmessage.entity.NetworkMessage;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
 import ch.dissem.bitmessage.exception.ApplicationException;
 import ch.dissem.bitmessage.exception.NodeException;
+import ch.dissem.bitmessage.utils.Bytes;
 import ch.dissem.bitmessage.utils.Decode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.LinkedList;
 import java.util.List;
 
 import static ch.dissem.bitmessage.entity.NetworkMessage.MAGIC_BYTES;
-import static ch.dissem.bitmessage.factory.BufferPool.bufferPool;
 import static ch.dissem.bitmessage.ports.NetworkHandler.MAX_PAYLOAD_SIZE;
 import static ch.dissem.bitmessage.utils.Singleton.cryptography;
+import static ch.dissem.bitmessage.utils.UnixTime.DAY;
+import static ch.dissem.bitmessage.utils.UnixTime.HOUR;
+import static ch.dissem.bitmessage.utils.UnixTime.now;
 
 /**
  * Similar to the {@link V3MessageFactory}, but used for NIO buffers which may or may not contain a whole message.
+ * <p>
+ * By default, the buffer for a message's payload starts out small and grows as the data arrives, so a peer that
+ * announces a large message but sends it slowly (or never) doesn't pin a full-size buffer. Payloads that outgrow
+ * this buffer are hashed as they arrive. Once the peer is trusted, e.g. after the handshake, full-size
+ * buffers may be reserved right away by calling {@link #setPreallocate(boolean)}.
+ * </p>
  */
 public class V3MessageReader {
+    private static final Logger LOG = LoggerFactory.getLogger(V3MessageReader.class);
+
+    private static final int STREAMING_BUFFER_SIZE = 8000;
+    /**
+     * Nonce, expiration time and object type, the first part of an object that can be checked before
+     * it's completely received.
+     */
+    private static final int OBJECT_HEADER_SIZE = 20;
+    private static final long MAX_EXPIRATION = 28 * DAY + 3 * HOUR;
+
+    private final BufferPool bufferPool;
+
     private ByteBuffer headerBuffer;
     private ByteBuffer dataBuffer;
 
@@ -45,20 +71,53 @@ public class V3MessageReader {
     private String command;
     private int length;
     private byte[] checksum;
+    private boolean preallocate;
+    private boolean objectHeaderChecked;
+    private MessageDigest digest;
+    private int hashed;
+    private int skipped;
 
     private List<NetworkMessage> messages = new LinkedList<>();
 
+    public V3MessageReader() {
+        this(BufferPool.bufferPool);
+    }
+
+    V3MessageReader(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * @param preallocate if true, the payload buffer is allocated at full size as soon as the message header is
+     *                    read. Otherwise it grows while the payload is received.
+     */
+    public void setPreallocate(boolean preallocate) {
+        this.preallocate = preallocate;
+    }
+
     public ByteBuffer getActiveBuffer() {
-        if (state != null && state != ReaderState.DATA) {
+        if (state != null && state != ReaderState.DATA && state != ReaderState.SKIP) {
             if (headerBuffer == null) {
                 headerBuffer = bufferPool.allocateHeaderBuffer();
             }
         }
-        return state == ReaderState.DATA ? dataBuffer : headerBuffer;
+        return state == ReaderState.DATA || state == ReaderState.SKIP ? dataBuffer : headerBuffer;
+    }
+
+    /**
+     * @return the number of bytes currently held in buffers by this reader
+     */
+    public int getBufferedBytes() {
+        int result = 0;
+        ByteBuffer buffer = headerBuffer;
+        if (buffer != null) result += buffer.capacity();
+        buffer = dataBuffer;
+        if (buffer != null) result += buffer.capacity();
+        return result;
     }
 
     public void update() {
-        if (state != ReaderState.DATA) {
+        if (state != ReaderState.DATA && state != ReaderState.SKIP) {
             getActiveBuffer();
             headerBuffer.flip();
         }
@@ -86,36 +145,114 @@ public class V3MessageReader {
                 state = ReaderState.DATA;
                 bufferPool.deallocate(headerBuffer);
                 headerBuffer = null;
-                dataBuffer = bufferPool.allocate(length);
-                dataBuffer.clear();
-                dataBuffer.limit(length);
+                dataBuffer = bufferPool.allocate(preallocate ? length : Math.min(length, STREAMING_BUFFER_SIZE));
+                dataBuffer.limit(Math.min(length, dataBuffer.capacity()));
+                objectHeaderChecked = !"object".equals(command);
+                digest = null;
+                hashed = 0;
             case DATA:
-                if (dataBuffer.position() < length) {
-                    return;
-                } else {
-                    dataBuffer.flip();
-                }
-                if (!testChecksum(dataBuffer)) {
-                    state = ReaderState.MAGIC;
-                    throw new NodeException("Checksum failed for message '" + command + "'");
+                if (!objectHeaderChecked && dataBuffer.position() >= OBJECT_HEADER_SIZE) {
+                    objectHeaderChecked = true;
+                    long expiresTime = dataBuffer.getLong(8);
+                    if (expiresTime > now(MAX_EXPIRATION)) {
+                        LOG.debug("Skipping object that expires too far in the future");
+                        state = ReaderState.SKIP;
+                        skipped = 0;
+                    }
                 }
-                try {
-                    MessagePayload payload = V3MessageFactory.getPayload(
-                        command,
-                        new ByteArrayInputStream(dataBuffer.array(),
-                            dataBuffer.arrayOffset() + dataBuffer.position(), length),
-                        length);
-                    if (payload != null) {
-                        messages.add(new NetworkMessage(payload));
+                if (state == ReaderState.SKIP) {
+                    skipReceivedData();
+                } else if (dataBuffer.position() < length) {
+                    if (!dataBuffer.hasRemaining()) {
+                        hashReceivedData();
+                        growDataBuffer();
+                    } else if (digest != null) {
+                        hashReceivedData();
                     }
-                } catch (IOException e) {
-                    throw new NodeException(e.getMessage());
-                } finally {
-                    state = ReaderState.MAGIC;
-                    bufferPool.deallocate(dataBuffer);
-                    dataBuffer = null;
-                    dataBuffer = null;
+                } else {
+                    readMessage();
                 }
+                return;
+            case SKIP:
+                skipReceivedData();
+        }
+    }
+
+    private void skipReceivedData() {
+        skipped += dataBuffer.position();
+        if (skipped < length) {
+            dataBuffer.clear();
+            dataBuffer.limit(Math.min(length - skipped, dataBuffer.capacity()));
+        } else {
+            state = ReaderState.MAGIC;
+            bufferPool.deallocate(dataBuffer);
+            dataBuffer = null;
+        }
+    }
+
+    /**
+     * Hashes the data received since the last call, so a large payload doesn't need to be hashed as a whole
+     * when it's complete. The digest is only created once the payload doesn't fit into the initial buffer,
+     * smaller payloads are hashed in one go.
+     */
+    private void hashReceivedData() {
+        if (digest == null) {
+            digest = cryptography().createSha512();
+        }
+        ByteBuffer received = dataBuffer.duplicate();
+        received.flip();
+        received.position(hashed);
+        digest.update(received);
+        hashed = dataBuffer.position();
+    }
+
+    private void growDataBuffer() {
+        ByteBuffer buffer = bufferPool.allocate(Math.min(length, 2 * dataBuffer.capacity()));
+        dataBuffer.flip();
+        buffer.put(dataBuffer);
+        buffer.limit(Math.min(length, buffer.capacity()));
+        bufferPool.deallocate(dataBuffer);
+        dataBuffer = buffer;
+    }
+
+    private void readMessage() {
+        byte[] hash;
+        if (digest == null) {
+            dataBuffer.flip();
+            hash = cryptography().sha512(dataBuffer);
+        } else {
+            hashReceivedData();
+            hash = digest.digest();
+            digest = null;
+            dataBuffer.flip();
+        }
+        // the checksum is taken from the payload's SHA-512 hash, and for objects the inventory vector
+        // is the first half of this hash's hash, so the payload needs to be hashed only once
+        if (!testChecksum(hash)) {
+            state = ReaderState.MAGIC;
+            bufferPool.deallocate(dataBuffer);
+            dataBuffer = null;
+            throw new NodeException("Checksum failed for message '" + command + "'");
+        }
+        try {
+            InventoryVector inventoryVector = null;
+            if ("object".equals(command)) {
+                inventoryVector = new InventoryVector(Bytes.truncate(cryptography().sha512(hash), 32));
+            }
+            MessagePayload payload = V3MessageFactory.getPayload(
+                command,
+                getInputStream(dataBuffer, length),
+                length,
+                inventoryVector);
+            if (payload != null) {
+                messages.add(new NetworkMessage(payload));
+            }
+        } catch (IOException e) {
+            throw new NodeException(e.getMessage());
+        } finally {
+            state = ReaderState.MAGIC;
+            bufferPool.deallocate(dataBuffer);
+            dataBuffer = null;
         }
     }
 
@@ -144,25 +281,35 @@ public class V3MessageReader {
         return false;
     }
 
+    private static InputStream getInputStream(ByteBuffer buffer, int length) {
+        if (buffer.hasArray()) {
+            return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+        } else {
+            // direct buffers have no accessible array, so the payload needs to be copied
+            byte[] data = new byte[length];
+            buffer.get(data);
+            return new ByteArrayInputStream(data);
+        }
+    }
+
     private static String getCommand(ByteBuffer buffer) {
-        int start = buffer.position();
+        byte[] bytes = new byte[12];
+        buffer.get(bytes);
         int l = 0;
-        while (l < 12 && buffer.get() != 0) l++;
+        while (l < 12 && bytes[l] != 0) l++;
         int i = l + 1;
         while (i < 12) {
-            if (buffer.get() != 0) throw new NodeException("'\\0' padding expected for command");
+            if (bytes[i] != 0) throw new NodeException("'\\0' padding expected for command");
             i++;
         }
         try {
-            return new String(buffer.array(), start, l, "ASCII");
+            return new String(bytes, 0, l, "ASCII");
         } catch (UnsupportedEncodingException e) {
             throw new ApplicationException(e);
         }
     }
 
-    private boolean testChecksum(ByteBuffer buffer) {
-        byte[] payloadChecksum = cryptography().sha512(buffer.array(),
-            buffer.arrayOffset() + buffer.position(), length);
+    private boolean testChecksum(byte[] payloadChecksum) {
         for (int i = 0; i < checksum.length; i++) {
             if (checksum[i] != payloadChecksum[i]) {
                 return false;
@@ -179,11 +326,13 @@ public class V3MessageReader {
         state = null;
         if (headerBuffer != null) {
             bufferPool.deallocate(headerBuffer);
+            headerBuffer = null;
         }
         if (dataBuffer != null) {
             bufferPool.deallocate(dataBuffer);
+            dataBuffer = null;
         }
     }
 
-    private enum ReaderState {MAGIC, HEADER, DATA}
+    private enum ReaderState {MAGIC, HEADER, DATA, SKIP}
 }
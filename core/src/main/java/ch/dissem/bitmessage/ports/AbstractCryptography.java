@@ -31,10 +31,18 @@ import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.Provider;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static ch.dissem.bitmessage.InternalContext.NETWORK_EXTRA_BYTES;
 import static ch.dissem.bitmessage.InternalContext.NETWORK_NONCE_TRIALS_PER_BYTE;
@@ -49,10 +57,24 @@ public abstract class AbstractCryptography implements Cryptography, InternalCont
     private static final BigInteger TWO = BigInteger.valueOf(2);
     private static final BigInteger TWO_POW_64 = TWO.pow(64);
     private static final BigInteger TWO_POW_16 = TWO.pow(16);
+    private static final ForkJoinPool POW_CHECK_POOL = new ForkJoinPool();
+    private static final int POW_CHECK_BATCH_SIZE = 16;
 
     protected final Provider provider;
     private InternalContext context;
 
+    /**
+     * Looking up digests and MACs from the provider is quite expensive, so each thread keeps its own instances.
+     * They're reset before they're used, in case a previous calculation was interrupted by an exception.
+     */
+    private final ThreadLocal<Map<String, MessageDigest>> digests = new ThreadLocal<Map<String, MessageDigest>>() {
+        @Override
+        protected Map<String, MessageDigest> initialValue() {
+            return new HashMap<>();
+        }
+    };
+    private final ThreadLocal<Mac> macs = new ThreadLocal<>();
+
     protected AbstractCryptography(Provider provider) {
         this.provider = provider;
     }
@@ -86,6 +108,30 @@ public abstract class AbstractCryptography implements Cryptography, InternalCont
         return mda.digest(mda.digest());
     }
 
+    public byte[] sha512(ByteBuffer data) {
+        MessageDigest mda = md("SHA-512");
+        int position = data.position();
+        mda.update(data);
+        data.position(position);
+        return mda.digest();
+    }
+
+    public byte[] doubleSha512(ByteBuffer data) {
+        MessageDigest mda = md("SHA-512");
+        int position = data.position();
+        mda.update(data);
+        data.position(position);
+        return mda.digest(mda.digest());
+    }
+
+    public MessageDigest createSha512() {
+        try {
+            return MessageDigest.getInstance("SHA-512", provider);
+        } catch (GeneralSecurityException e) {
+            throw new ApplicationException(e);
+        }
+    }
+
     public byte[] ripemd160(byte[]... data) {
         return hash("RIPEMD160", data);
     }
@@ -111,7 +157,7 @@ public abstract class AbstractCryptography implements Cryptography, InternalCont
         nonceTrialsPerByte = max(nonceTrialsPerByte, NETWORK_NONCE_TRIALS_PER_BYTE);
         extraBytes = max(extraBytes, NETWORK_EXTRA_BYTES);
 
-        byte[] initialHash = getInitialHash(object);
+        byte[] initialHash = object.getInitialHash();
 
         byte[] target = getProofOfWorkTarget(object, nonceTrialsPerByte, extraBytes);
 
@@ -120,13 +166,43 @@ public abstract class AbstractCryptography implements Cryptography, InternalCont
 
     public void checkProofOfWork(ObjectMessage object, long nonceTrialsPerByte, long extraBytes)
             throws IOException {
-        byte[] target = getProofOfWorkTarget(object, nonceTrialsPerByte, extraBytes);
-        byte[] value = doubleSha512(object.getNonce(), getInitialHash(object));
-        if (Bytes.lt(target, value, 8)) {
-            throw new InsufficientProofOfWorkException(target, value);
+        byte[] value = doubleSha512(object.getNonce(), object.getInitialHash());
+        if (!isProofOfWorkSufficient(object, nonceTrialsPerByte, extraBytes, value)) {
+            throw new InsufficientProofOfWorkException(
+                    getProofOfWorkTarget(object, nonceTrialsPerByte, extraBytes), value);
         }
     }
 
+    @Override
+    public boolean[] checkProofOfWork(List<ObjectMessage> objects, long nonceTrialsPerByte, long extraBytes) {
+        if (!(objects instanceof RandomAccess)) {
+            objects = new ArrayList<>(objects);
+        }
+        boolean[] result = new boolean[objects.size()];
+        POW_CHECK_POOL.invoke(new ProofOfWorkCheck(objects, nonceTrialsPerByte, extraBytes, result, 0, result.length));
+        return result;
+    }
+
+    private boolean isProofOfWorkSufficient(ObjectMessage object, long nonceTrialsPerByte, long extraBytes) {
+        byte[] value = doubleSha512(object.getNonce(), object.getInitialHash());
+        return isProofOfWorkSufficient(object, nonceTrialsPerByte, extraBytes, value);
+    }
+
+    private boolean isProofOfWorkSufficient(ObjectMessage object, long nonceTrialsPerByte, long extraBytes,
+                                            byte[] value) {
+        if (nonceTrialsPerByte == 0) nonceTrialsPerByte = NETWORK_NONCE_TRIALS_PER_BYTE;
+        if (extraBytes == 0) extraBytes = NETWORK_EXTRA_BYTES;
+
+        long payloadLength = object.getPayloadBytesWithoutNonce().length;
+        long timeToLive = object.getExpiresTime() - UnixTime.now();
+        long target = proofOfWorkTarget(payloadLength, timeToLive, nonceTrialsPerByte, extraBytes);
+        if (target == 0) {
+            target = Bytes.toLong(bigIntegerProofOfWorkTarget(payloadLength, timeToLive, nonceTrialsPerByte,
+                    extraBytes));
+        }
+        return !Bytes.lt(target, Bytes.toLong(value));
+    }
+
     @Override
     public byte[] getInitialHash(ObjectMessage object) {
         return sha512(object.getPayloadBytesWithoutNonce());
@@ -137,8 +213,63 @@ public abstract class AbstractCryptography implements Cryptography, InternalCont
         if (nonceTrialsPerByte == 0) nonceTrialsPerByte = NETWORK_NONCE_TRIALS_PER_BYTE;
         if (extraBytes == 0) extraBytes = NETWORK_EXTRA_BYTES;
 
-        BigInteger TTL = BigInteger.valueOf(object.getExpiresTime() - UnixTime.now());
-        BigInteger powLength = BigInteger.valueOf(object.getPayloadBytesWithoutNonce().length + extraBytes);
+        long payloadLength = object.getPayloadBytesWithoutNonce().length;
+        long timeToLive = object.getExpiresTime() - UnixTime.now();
+        long target = proofOfWorkTarget(payloadLength, timeToLive, nonceTrialsPerByte, extraBytes);
+        if (target != 0) {
+            return Bytes.fromLong(target);
+        }
+        return bigIntegerProofOfWorkTarget(payloadLength, timeToLive, nonceTrialsPerByte, extraBytes);
+    }
+
+    /**
+     * Calculates the proof of work target <code>2^64 / (trials * (length + length * TTL / 2^16))</code> using
+     * primitive arithmetic only. Results are identical to the BigInteger calculation wherever this method
+     * returns a target.
+     *
+     * @return the target as an unsigned number, or 0 if it can't be calculated this way because of an overflow
+     * or a denominator that is too small (in which case the BigInteger calculation must be used).
+     */
+    static long proofOfWorkTarget(long payloadLength, long timeToLive, long nonceTrialsPerByte, long extraBytes) {
+        long powLength = payloadLength + extraBytes;
+        if (((payloadLength ^ powLength) & (extraBytes ^ powLength)) < 0) return 0;
+
+        long product = powLength * timeToLive;
+        if (powLength != 0 && (product / powLength != timeToLive
+                || powLength == -1 && timeToLive == Long.MIN_VALUE)) return 0;
+        // like BigInteger.divide, '/' rounds towards zero, so we can't simply shift
+        long quotient = product / 65536;
+
+        long sum = powLength + quotient;
+        if (((powLength ^ sum) & (quotient ^ sum)) < 0) return 0;
+
+        long denominator = nonceTrialsPerByte * sum;
+        if (sum != 0 && (denominator / sum != nonceTrialsPerByte
+                || sum == -1 && nonceTrialsPerByte == Long.MIN_VALUE)) return 0;
+        // 2^64 / 2 doesn't fit into eight bytes as a BigInteger, smaller denominators are invalid anyway
+        if (denominator <= 2) return 0;
+
+        // unsigned (2^64 - 1) / denominator, then corrected for 2^64
+        long target = ((-1L >>> 1) / denominator) << 1;
+        long remainder = -1L - target * denominator;
+        if (!Bytes.lt(remainder, denominator)) {
+            target++;
+        }
+        if ((denominator & (denominator - 1)) == 0) {
+            // denominator is a power of two and therefore a divisor of 2^64
+            target++;
+        }
+        return target;
+    }
+
+    /**
+     * The reference implementation of the proof of work target calculation, used whenever the primitive
+     * calculation can't be used.
+     */
+    static byte[] bigIntegerProofOfWorkTarget(long payloadLength, long timeToLive, long nonceTrialsPerByte,
+                                              long extraBytes) {
+        BigInteger TTL = BigInteger.valueOf(timeToLive);
+        BigInteger powLength = BigInteger.valueOf(payloadLength + extraBytes);
         BigInteger denominator = BigInteger.valueOf(nonceTrialsPerByte)
                 .multiply(
                         powLength.add(
@@ -157,18 +288,50 @@ public abstract class AbstractCryptography implements Cryptography, InternalCont
     }
 
     private MessageDigest md(String algorithm) {
+        Map<String, MessageDigest> threadDigests = digests.get();
+        MessageDigest mda = threadDigests.get(algorithm);
+        if (mda == null) {
+            try {
+                mda = MessageDigest.getInstance(algorithm, provider);
+            } catch (GeneralSecurityException e) {
+                throw new ApplicationException(e);
+            }
+            threadDigests.put(algorithm, mda);
+        } else {
+            mda.reset();
+        }
+        return mda;
+    }
+
+    /**
+     * @return this thread's HmacSHA256 instance, initialized with the given key
+     */
+    private Mac mac(byte[] key_m) throws GeneralSecurityException {
+        Mac mac = macs.get();
+        if (mac == null) {
+            mac = Mac.getInstance("HmacSHA256", provider);
+            macs.set(mac);
+        }
+        // initializing also resets the MAC
+        mac.init(new SecretKeySpec(key_m, "HmacSHA256"));
+        return mac;
+    }
+
+    public byte[] mac(byte[] key_m, byte[] data) {
         try {
-            return MessageDigest.getInstance(algorithm, provider);
+            return mac(key_m).doFinal(data);
         } catch (GeneralSecurityException e) {
             throw new ApplicationException(e);
         }
     }
 
-    public byte[] mac(byte[] key_m, byte[] data) {
+    public byte[] mac(byte[] key_m, byte[]... data) {
         try {
-            Mac mac = Mac.getInstance("HmacSHA256", provider);
-            mac.init(new SecretKeySpec(key_m, "HmacSHA256"));
-            return mac.doFinal(data);
+            Mac mac = mac(key_m);
+            for (byte[] part : data) {
+                mac.update(part);
+            }
+            return mac.doFinal();
         } catch (GeneralSecurityException e) {
             throw new ApplicationException(e);
         }
@@ -189,4 +352,43 @@ public abstract class AbstractCryptography implements Cryptography, InternalCont
     public long randomNonce() {
         return RANDOM.nextLong();
     }
+
+    /**
+     * Splits the objects to check until there are few enough to check them on one thread.
+     */
+    private class ProofOfWorkCheck extends RecursiveAction {
+        private static final long serialVersionUID = 6428375234919502736L;
+
+        private final List<ObjectMessage> objects;
+        private final long nonceTrialsPerByte;
+        private final long extraBytes;
+        private final boolean[] result;
+        private final int from;
+        private final int to;
+
+        private ProofOfWorkCheck(List<ObjectMessage> objects, long nonceTrialsPerByte, long extraBytes,
+                                 boolean[] result, int from, int to) {
+            this.objects = objects;
+            this.nonceTrialsPerByte = nonceTrialsPerByte;
+            this.extraBytes = extraBytes;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= POW_CHECK_BATCH_SIZE) {
+                for (int i = from; i < to; i++) {
+                    result[i] = isProofOfWorkSufficient(objects.get(i), nonceTrialsPerByte, extraBytes);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(
+                        new ProofOfWorkCheck(objects, nonceTrialsPerByte, extraBytes, result, from, middle),
+                        new ProofOfWorkCheck(objects, nonceTrialsPerByte, extraBytes, result, middle, to)
+                );
+            }
+        }
+    }
 }
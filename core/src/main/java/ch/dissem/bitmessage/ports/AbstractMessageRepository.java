@@ -21,13 +21,13 @@ import ch.dissem.bitmessage.entity.BitmessageAddress;
 import ch.dissem.bitmessage.entity.Plaintext;
 import ch.dissem.bitmessage.entity.valueobject.Label;
 import ch.dissem.bitmessage.exception.ApplicationException;
-import ch.dissem.bitmessage.utils.Strings;
 import ch.dissem.bitmessage.utils.UnixTime;
 
 import java.util.Collection;
 import java.util.List;
 
-import static ch.dissem.bitmessage.utils.SqlStrings.join;
+import static ch.dissem.bitmessage.utils.SqlStrings.inline;
+import static ch.dissem.bitmessage.utils.SqlStrings.placeholders;
 
 public abstract class AbstractMessageRepository implements MessageRepository, InternalContext.ContextHolder {
     protected InternalContext ctx;
@@ -52,7 +52,7 @@ public abstract class AbstractMessageRepository implements MessageRepository, In
     @Override
     public Plaintext getMessage(Object id) {
         if (id instanceof Long) {
-            return single(find("id=" + id));
+            return single(find("id=?", id));
         } else {
             throw new IllegalArgumentException("Long expected for ID");
         }
@@ -60,12 +60,12 @@ public abstract class AbstractMessageRepository implements MessageRepository, In
 
     @Override
     public Plaintext getMessage(byte[] initialHash) {
-        return single(find("initial_hash=X'" + Strings.hex(initialHash) + "'"));
+        return single(find("initial_hash=?", initialHash));
     }
 
     @Override
     public Plaintext getMessageForAck(byte[] ackData) {
-        return single(find("ack_data=X'" + Strings.hex(ackData) + "' AND status='" + Plaintext.Status.SENT + "'"));
+        return single(find("ack_data=? AND status=?", ackData, Plaintext.Status.SENT.name()));
     }
 
     @Override
@@ -73,29 +73,28 @@ public abstract class AbstractMessageRepository implements MessageRepository, In
         if (label == null) {
             return find("id NOT IN (SELECT message_id FROM Message_Label)");
         } else {
-            return find("id IN (SELECT message_id FROM Message_Label WHERE label_id=" + label.getId() + ")");
+            return find("id IN (SELECT message_id FROM Message_Label WHERE label_id=?)", label.getId());
         }
     }
 
     @Override
     public List<Plaintext> findMessages(Plaintext.Status status, BitmessageAddress recipient) {
-        return find("status='" + status.name() + "' AND recipient='" + recipient.getAddress() + "'");
+        return find("status=? AND recipient=?", status.name(), recipient.getAddress());
     }
 
     @Override
     public List<Plaintext> findMessages(Plaintext.Status status) {
-        return find("status='" + status.name() + "'");
+        return find("status=?", status.name());
     }
 
     @Override
     public List<Plaintext> findMessages(BitmessageAddress sender) {
-        return find("sender='" + sender.getAddress() + "'");
+        return find("sender=?", sender.getAddress());
     }
 
     @Override
     public List<Plaintext> findMessagesToResend() {
-        return find("status='" + Plaintext.Status.SENT.name() + "'" +
-                " AND next_try < " + UnixTime.now());
+        return find("status=? AND next_try < ?", Plaintext.Status.SENT.name(), UnixTime.now());
     }
 
     @Override
@@ -105,11 +104,26 @@ public abstract class AbstractMessageRepository implements MessageRepository, In
 
     @Override
     public List<Label> getLabels(Label.Type... types) {
-        return findLabels("type IN (" + join(types) + ")");
+        Object[] names = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            names[i] = types[i].name();
+        }
+        return findLabels("type IN (" + placeholders(types.length) + ")", names);
     }
 
     protected abstract List<Label> findLabels(String where);
 
+    /**
+     * Override this to bind the parameters in a prepared statement. By default they are inlined into the where
+     * clause and {@link #findLabels(String)} is called.
+     *
+     * @param where      the where clause, using '?' as placeholder for parameters
+     * @param parameters values for the placeholders, either String, Long, Integer or byte[]
+     */
+    protected List<Label> findLabels(String where, Object... parameters) {
+        return findLabels(inline(where, parameters));
+    }
+
 
     protected <T> T single(Collection<T> collection) {
         switch (collection.size()) {
@@ -124,4 +138,15 @@ public abstract class AbstractMessageRepository implements MessageRepository, In
     }
 
     protected abstract List<Plaintext> find(String where);
+
+    /**
+     * Override this to bind the parameters in a prepared statement. By default they are inlined into the where
+     * clause and {@link #find(String)} is called.
+     *
+     * @param where      the where clause, using '?' as placeholder for parameters
+     * @param parameters values for the placeholders, either String, Long, Integer or byte[]
+     */
+    protected List<Plaintext> find(String where, Object... parameters) {
+        return find(inline(where, parameters));
+    }
 }
@@ -22,8 +22,10 @@ import ch.dissem.bitmessage.exception.InsufficientProofOfWorkException;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
+import java.util.List;
 
 /**
  * Provides some methods to help with hashing and encryption. All randoms are created using {@link SecureRandom},
@@ -76,6 +78,30 @@ public interface Cryptography {
      */
     byte[] doubleSha512(byte[] data, int length);
 
+    /**
+     * A helper method to calculate SHA-512 hashes directly from a buffer, which may also be a direct buffer.
+     *
+     * @param data the remaining bytes of this buffer get hashed. Its position isn't changed.
+     * @return SHA-512 hash of data
+     */
+    byte[] sha512(ByteBuffer data);
+
+    /**
+     * A helper method to calculate double SHA-512 hashes directly from a buffer, which may also be a direct buffer.
+     *
+     * @param data the remaining bytes of this buffer get hashed. Its position isn't changed.
+     * @return double SHA-512 hash of data
+     */
+    byte[] doubleSha512(ByteBuffer data);
+
+    /**
+     * Creates a new SHA-512 digest for data that arrives in parts. Unlike the digests used by the helper methods,
+     * it isn't shared, so it may be updated over several calls, but also only be used by one thread at a time.
+     *
+     * @return a new SHA-512 {@link MessageDigest}
+     */
+    MessageDigest createSha512();
+
     /**
      * A helper method to calculate RIPEMD-160 hashes. Supplying multiple byte arrays has the same result as a
      * concatenation of all arrays, but might perform better.
@@ -146,6 +172,18 @@ public interface Cryptography {
     void checkProofOfWork(ObjectMessage object, long nonceTrialsPerByte, long extraBytes)
             throws IOException;
 
+    /**
+     * Checks the proof of work of many objects at once, using all available CPU cores. This is considerably faster
+     * than checking them one by one, e.g. when synchronizing.
+     *
+     * @param objects            to be checked
+     * @param nonceTrialsPerByte difficulty
+     * @param extraBytes         bytes to add to the object size
+     * @return an array where the value at index <em>i</em> is true if the proof of work of the <em>i</em>th object
+     * is sufficient, false otherwise
+     */
+    boolean[] checkProofOfWork(List<ObjectMessage> objects, long nonceTrialsPerByte, long extraBytes);
+
     byte[] getInitialHash(ObjectMessage object);
 
     byte[] getProofOfWorkTarget(ObjectMessage object, long nonceTrialsPerByte, long extraBytes);
@@ -159,6 +197,15 @@ public interface Cryptography {
      */
     byte[] mac(byte[] key_m, byte[] data);
 
+    /**
+     * Calculates the MAC for a message consisting of several parts, without the need to concatenate them first.
+     *
+     * @param key_m the symmetric key used
+     * @param data  the parts of the message data, in order
+     * @return the MAC
+     */
+    byte[] mac(byte[] key_m, byte[]... data);
+
     /**
      * @param encrypt if true, encrypts data, otherwise tries to decrypt it.
      * @param data
@@ -39,6 +39,12 @@ public interface Inventory {
 
     ObjectMessage getObject(InventoryVector vector);
 
+    /**
+     * Returns all objects we have for the given inventory vectors, e.g. to answer a <code>getdata</code> request.
+     * Objects we don't have are omitted, and the result may be in any order.
+     */
+    List<ObjectMessage> getObjects(List<InventoryVector> vectors);
+
     /**
      * This method is mainly used to search for public keys to newly added addresses or broadcasts from new
      * subscriptions.
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.ports;
+
+import ch.dissem.bitmessage.entity.BitmessageAddress;
+import ch.dissem.bitmessage.entity.payload.Msg;
+import ch.dissem.bitmessage.exception.ApplicationException;
+import ch.dissem.bitmessage.exception.DecryptionFailedException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static ch.dissem.bitmessage.utils.ThreadFactoryBuilder.pool;
+
+/**
+ * Spreads the identities over several threads, which is useful for nodes hosting many identities, as each try
+ * costs an EC point multiplication. All threads stop as soon as one identity was able to decrypt the message.
+ * <p>
+ * Messages for only a few identities are decrypted on the calling thread, as the parallelization would cost more
+ * than it saves.
+ * </p>
+ */
+public class ParallelTrialDecryption implements TrialDecryption {
+    private static final int MIN_IDENTITIES_PER_THREAD = 4;
+
+    private final int threads;
+    private final ExecutorService workers;
+    private final TrialDecryption sequential = new SequentialTrialDecryption();
+
+    public ParallelTrialDecryption() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads the maximum number of threads used to decrypt one message
+     */
+    public ParallelTrialDecryption(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("At least one thread is needed");
+        this.threads = threads;
+        this.workers = Executors.newFixedThreadPool(threads, pool("decryption").lowPrio().daemon().build());
+    }
+
+    @Override
+    public BitmessageAddress decrypt(Msg msg, List<BitmessageAddress> identities) throws IOException {
+        int tasks = Math.min(threads, identities.size() / MIN_IDENTITIES_PER_THREAD);
+        if (tasks < 2) {
+            return sequential.decrypt(msg, identities);
+        }
+
+        List<BitmessageAddress> candidates = new ArrayList<>(identities);
+        AtomicBoolean done = new AtomicBoolean();
+        CompletionService<BitmessageAddress> completionService = new ExecutorCompletionService<>(workers);
+        List<Future<BitmessageAddress>> futures = new ArrayList<>(tasks);
+        for (int i = 0; i < tasks; i++) {
+            futures.add(completionService.submit(new Worker(msg, candidates, i, tasks, done)));
+        }
+        try {
+            for (int i = 0; i < tasks; i++) {
+                BitmessageAddress identity = completionService.take().get();
+                if (identity != null) {
+                    return identity;
+                }
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new ApplicationException(e.getCause());
+        } finally {
+            done.set(true);
+            for (Future<BitmessageAddress> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Tries every <em>step</em>th identity, starting at <em>offset</em>.
+     */
+    private static class Worker implements Callable<BitmessageAddress> {
+        private final Msg msg;
+        private final List<BitmessageAddress> identities;
+        private final int offset;
+        private final int step;
+        private final AtomicBoolean done;
+
+        private Worker(Msg msg, List<BitmessageAddress> identities, int offset, int step, AtomicBoolean done) {
+            this.msg = msg;
+            this.identities = identities;
+            this.offset = offset;
+            this.step = step;
+            this.done = done;
+        }
+
+        @Override
+        public BitmessageAddress call() throws IOException {
+            for (int i = offset; i < identities.size() && !done.get(); i += step) {
+                BitmessageAddress identity = identities.get(i);
+                try {
+                    msg.decrypt(identity.getPrivateKey().getPrivateEncryptionKey());
+                    done.set(true);
+                    return identity;
+                } catch (DecryptionFailedException ignore) {
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.ports;
+
+import ch.dissem.bitmessage.entity.BitmessageAddress;
+import ch.dissem.bitmessage.entity.payload.Msg;
+import ch.dissem.bitmessage.exception.DecryptionFailedException;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tries one identity after the other on the calling thread. This is the default, and the best choice if there
+ * are only a few identities.
+ */
+public class SequentialTrialDecryption implements TrialDecryption {
+    @Override
+    public BitmessageAddress decrypt(Msg msg, List<BitmessageAddress> identities) throws IOException {
+        for (BitmessageAddress identity : identities) {
+            try {
+                msg.decrypt(identity.getPrivateKey().getPrivateEncryptionKey());
+                return identity;
+            } catch (DecryptionFailedException ignore) {
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.ports;
+
+import ch.dissem.bitmessage.entity.BitmessageAddress;
+import ch.dissem.bitmessage.entity.payload.Msg;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Finds out which of our identities a msg object was sent to, by trying to decrypt it with each of their
+ * private keys.
+ */
+public interface TrialDecryption {
+    /**
+     * Tries to decrypt the message with the given identities. If one of them succeeds, the message is decrypted
+     * afterwards.
+     *
+     * @param msg        the encrypted message
+     * @param identities the identities that might be the recipient
+     * @return the identity the message was sent to, or null if it couldn't be decrypted with any of them
+     * @throws IOException if the message could be decrypted but its content couldn't be read
+     */
+    BitmessageAddress decrypt(Msg msg, List<BitmessageAddress> identities) throws IOException;
+}
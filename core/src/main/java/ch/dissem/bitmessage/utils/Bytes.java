@@ -87,6 +87,36 @@ public class Bytes {
         return (a ^ BYTE_0x80) < (b ^ BYTE_0x80);
     }
 
+    /**
+     * @return true if a &lt; b, where both numbers are interpreted as unsigned 64 bit integers.
+     */
+    public static boolean lt(long a, long b) {
+        return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE);
+    }
+
+    /**
+     * @return the first eight bytes of the given array as an unsigned 64 bit integer.
+     */
+    public static long toLong(byte[] source) {
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = (result << 8) | (source[i] & 0xFF);
+        }
+        return result;
+    }
+
+    /**
+     * @return a new byte array of length 8, containing the given unsigned 64 bit integer.
+     */
+    public static byte[] fromLong(long value) {
+        byte[] result = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            result[i] = (byte) value;
+            value >>>= 8;
+        }
+        return result;
+    }
+
     /**
      * @return a new byte array of length, left-padded with '0'.
      */
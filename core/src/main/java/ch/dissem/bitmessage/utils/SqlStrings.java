@@ -56,4 +56,51 @@ public class SqlStrings {
         }
         return streamList;
     }
+
+    /**
+     * @return a list of <em>count</em> placeholders for a prepared statement, e.g. "?, ?, ?"
+     */
+    public static StringBuilder placeholders(int count) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) result.append(", ");
+            result.append('?');
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the placeholders in <em>sql</em> with the given parameters as SQL literals, for repositories
+     * that don't support prepared statements.
+     *
+     * @param sql        using '?' as placeholder for parameters
+     * @param parameters either String, Number or byte[]
+     */
+    public static String inline(String sql, Object... parameters) {
+        StringBuilder result = new StringBuilder();
+        int p = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c != '?') {
+                result.append(c);
+            } else if (p == parameters.length) {
+                throw new IllegalArgumentException("Not enough parameters for " + sql);
+            } else {
+                Object parameter = parameters[p++];
+                if (parameter instanceof byte[]) {
+                    result.append("X'").append(hex((byte[]) parameter)).append('\'');
+                } else if (parameter instanceof Number) {
+                    result.append(parameter);
+                } else if (parameter instanceof String) {
+                    result.append('\'').append(((String) parameter).replace("'", "''")).append('\'');
+                } else {
+                    throw new IllegalArgumentException("Unsupported parameter type: " + parameter);
+                }
+            }
+        }
+        if (p < parameters.length) {
+            throw new IllegalArgumentException("Too many parameters for " + sql);
+        }
+        return result.toString();
+    }
 }
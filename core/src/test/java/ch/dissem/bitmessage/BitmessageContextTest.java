@@ -200,6 +200,20 @@ public class BitmessageContextTest {
         assertThat(ctx.createIdentity(false), notNullValue());
     }
 
+    @Test
+    public void ensureIdentitysPubkeyIsNotChangedWhenItIsSent() throws Exception {
+        BitmessageAddress identity = TestUtils.loadIdentity("BM-2cSqjfJ8xK6UUn5Rw3RpdGQ9RsDkBhWnS8");
+        Pubkey pubkey = identity.getPubkey();
+        byte[] signature = pubkey.getSignature();
+
+        ctx.internals().sendPubkey(identity, identity.getStream());
+
+        verify(ctx.internals().getProofOfWorkRepository(), timeout(10000))
+                .putObject(object(PUBKEY), anyLong(), anyLong());
+        assertSame(pubkey, identity.getPubkey());
+        assertArrayEquals(signature, pubkey.getSignature());
+    }
+
     @Test
     public void ensureMessageIsSent() throws Exception {
         ctx.send(TestUtils.loadIdentity("BM-2cSqjfJ8xK6UUn5Rw3RpdGQ9RsDkBhWnS8"), TestUtils.loadContact(),
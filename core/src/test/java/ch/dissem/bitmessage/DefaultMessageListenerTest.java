@@ -67,6 +67,7 @@ public class DefaultMessageListenerTest extends TestBase {
         when(ctx.getInventory()).thenReturn(inventory);
         when(ctx.getNetworkHandler()).thenReturn(networkHandler);
         when(ctx.getLabeler()).thenReturn(mock(Labeler.class));
+        when(ctx.getTrialDecryption()).thenReturn(new SequentialTrialDecryption());
 
         listener = new DefaultMessageListener(mock(Labeler.class), mock(BitmessageContext.Listener.class));
         when(ctx.getNetworkListener()).thenReturn(listener);
@@ -62,6 +62,21 @@ public class BitmessageAddressTest extends TestBase {
         assertEquals(4, address.getVersion());
     }
 
+    @Test
+    public void ensureCopyCanBeChangedIndependently() {
+        BitmessageAddress address = new BitmessageAddress(new PrivateKey(false, 1, 1000, 1000, DOES_ACK));
+        address.setAlias("Original");
+        BitmessageAddress copy = new BitmessageAddress(address);
+        assertEquals(address, copy);
+        assertEquals("Original", copy.getAlias());
+        assertSame(address.getPrivateKey(), copy.getPrivateKey());
+
+        copy.setAlias("Copy");
+        copy.setSubscribed(true);
+        assertEquals("Original", address.getAlias());
+        assertFalse(address.isSubscribed());
+    }
+
     @Test
     public void ensureIdentityCanBeCreated() {
         BitmessageAddress address = new BitmessageAddress(new PrivateKey(false, 1, 1000, 1000, DOES_ACK));
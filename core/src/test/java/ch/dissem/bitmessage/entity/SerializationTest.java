@@ -22,11 +22,13 @@ import ch.dissem.bitmessage.entity.valueobject.Label;
 import ch.dissem.bitmessage.factory.Factory;
 import ch.dissem.bitmessage.utils.TestBase;
 import ch.dissem.bitmessage.utils.TestUtils;
+import ch.dissem.bitmessage.utils.UnixTime;
 import org.junit.Test;
 
 import java.io.*;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 
 import static ch.dissem.bitmessage.entity.Plaintext.Type.MSG;
@@ -142,6 +144,49 @@ public class SerializationTest extends TestBase {
         assertEquals(ivs, invAfter.getInventory());
     }
 
+    @Test
+    public void ensureCachedHashesAreResetWhenNonceChanges() throws Exception {
+        ObjectMessage object = TestUtils.loadObjectMessage(2, "V2Pubkey.payload");
+        InventoryVector iv = object.getInventoryVector();
+        byte[] initialHash = object.getInitialHash();
+        assertSame(iv, object.getInventoryVector());
+        assertArrayEquals(cryptography().getInitialHash(object), initialHash);
+
+        byte[] nonce = object.getNonce().clone();
+        nonce[0]++;
+        object.setNonce(nonce);
+        assertNotEquals(iv, object.getInventoryVector());
+        assertArrayEquals(initialHash, object.getInitialHash());
+        assertEquals(new InventoryVector(Arrays.copyOf(cryptography().doubleSha512(nonce,
+                object.getPayloadBytesWithoutNonce()), 32)), object.getInventoryVector());
+    }
+
+    @Test
+    public void ensureCachedHashesAreResetWhenPayloadIsEncrypted() throws Exception {
+        BitmessageAddress identity = TestUtils.loadIdentity("BM-2cSqjfJ8xK6UUn5Rw3RpdGQ9RsDkBhWnS8");
+        Plaintext plaintext = new Plaintext.Builder(Plaintext.Type.BROADCAST)
+                .from(identity)
+                .message("Subject", "Message")
+                .build();
+        ObjectMessage object = new ObjectMessage.Builder()
+                .nonce(new byte[8])
+                .stream(1)
+                .expiresTime(UnixTime.now(+300))
+                .payload(Factory.getBroadcast(plaintext))
+                .build();
+        object.sign(identity.getPrivateKey());
+        byte[] publicKey = cryptography().createPublicKey(identity.getPublicDecryptionKey());
+        object.encrypt(publicKey);
+        byte[] initialHash = object.getInitialHash();
+        InventoryVector iv = object.getInventoryVector();
+
+        // encryption uses a random key, so encrypting again changes the payload
+        object.encrypt(publicKey);
+        assertFalse(Arrays.equals(initialHash, object.getInitialHash()));
+        assertNotEquals(iv, object.getInventoryVector());
+        assertArrayEquals(cryptography().sha512(object.getPayloadBytesWithoutNonce()), object.getInitialHash());
+    }
+
     private void doTest(String resourceName, int version, Class<?> expectedPayloadType) throws IOException {
         byte[] data = TestUtils.getBytes(resourceName);
         InputStream in = new ByteArrayInputStream(data);
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.entity.valueobject;
+
+import ch.dissem.bitmessage.entity.BitmessageAddress;
+import ch.dissem.bitmessage.utils.TestBase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class KeySearchTest extends TestBase {
+    private static final List<String> DETERMINISTIC_ADDRESSES = Arrays.asList(
+        "BM-2cWFkyuXXFw6d393RGnin2RpSXj8wxtt6F",
+        "BM-2cX8TF9vuQZEWvT7UrEeq1HN9dgiSUPLEN",
+        "BM-2cUzX8f9CKUU7L8NeB8GExZvf54PrcXq1S",
+        "BM-2cU7MAoQd7KE8SPF7AKFPpoEZKjk86KRqE"
+    );
+
+    @Test
+    public void ensureDeterministicKeysAreTheSameWithOneThread() {
+        assertEquals(DETERMINISTIC_ADDRESSES, deterministicAddresses(new KeySearch(1)));
+    }
+
+    @Test
+    public void ensureDeterministicKeysAreTheSameWithManyThreads() {
+        assertEquals(DETERMINISTIC_ADDRESSES, deterministicAddresses(new KeySearch(4)));
+    }
+
+    @Test
+    public void ensureRandomKeysHaveSuitableRipe() {
+        KeySearch search = new KeySearch(4);
+        for (int i = 0; i < 10; i++) {
+            PrivateKey privateKey = new PrivateKey(search, false, 1, 1000, 1000);
+            assertEquals(0, new BitmessageAddress(privateKey).getRipe()[0]);
+        }
+    }
+
+    @Test
+    public void ensureSingleDeterministicKeyIsTheFirstOfTheSequence() {
+        PrivateKey privateKey = new PrivateKey(4, 1, "test");
+        assertEquals(DETERMINISTIC_ADDRESSES.get(0), new BitmessageAddress(privateKey).getAddress());
+    }
+
+    @Test
+    public void ensureSequenceContinuesAfterGivenNonce() {
+        KeySearch search = new KeySearch(2);
+        byte[] seed = "test".getBytes();
+        KeySearch.Candidate first;
+        KeySearch.Candidate second;
+        try (KeySearch.Sequence sequence = search.deterministicSequence(seed, 0, false)) {
+            first = sequence.next();
+            second = sequence.next();
+        }
+        try (KeySearch.Sequence sequence = search.deterministicSequence(seed, first.nextNonce, false)) {
+            assertArrayEquals(second.privateSigningKey, sequence.next().privateSigningKey);
+        }
+        assertArrayEquals(second.privateSigningKey,
+            search.deterministic(seed, first.nextNonce, false).privateSigningKey);
+    }
+
+    private List<String> deterministicAddresses(KeySearch search) {
+        final List<String> result = new ArrayList<>();
+        PrivateKey.deterministic(search, "test", 4, 4, 1, false, new PrivateKey.Callback() {
+            @Override
+            public void onPrivateKeyGenerated(PrivateKey privateKey) {
+                result.add(new BitmessageAddress(privateKey).getAddress());
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.factory;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+    @Test
+    public void ensureBuffersAreReused() {
+        BufferPool pool = new BufferPool();
+        ByteBuffer buffer = pool.allocate(500);
+        assertEquals(1000, buffer.capacity());
+        buffer.put((byte) 1);
+        pool.deallocate(buffer);
+
+        ByteBuffer reused = pool.allocate(1000);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(1L, pool.getStatus().getProperty("threadCacheHits").getValue());
+        assertEquals(1L, pool.getStatus().getProperty("misses").getValue());
+    }
+
+    @Test
+    public void ensureSizeClassesAreFineGrained() {
+        BufferPool pool = new BufferPool();
+        assertEquals(24, pool.allocateHeaderBuffer().capacity());
+        assertEquals(2000, pool.allocate(1500).capacity());
+        assertEquals(125000, pool.allocate(100000).capacity());
+    }
+
+    @Test
+    public void ensureBuffersAreSharedBetweenThreads() throws Exception {
+        final BufferPool pool = new BufferPool();
+        final ByteBuffer buffer = pool.allocate(100000);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pool.deallocate(buffer);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertEquals(125000L, pool.getStatus().getProperty("retainedBytes").getValue());
+        assertSame(buffer, pool.allocate(125000));
+        assertEquals(1L, pool.getStatus().getProperty("hits").getValue());
+        assertEquals(0L, pool.getStatus().getProperty("retainedBytes").getValue());
+    }
+
+    @Test
+    public void ensureNumberOfRetainedBuffersIsLimited() {
+        BufferPool pool = new BufferPool();
+        ByteBuffer[] buffers = new ByteBuffer[5];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.allocate(1600003);
+        }
+        for (ByteBuffer buffer : buffers) {
+            pool.deallocate(buffer);
+        }
+        assertEquals(3L, pool.getStatus().getProperty("discarded").getValue());
+        assertEquals(2 * 1600003L, pool.getStatus().getProperty("retainedBytes").getValue());
+    }
+
+    @Test
+    public void ensureDirectBuffersAreCreatedIfRequested() {
+        BufferPool pool = new BufferPool();
+        pool.setDirect(true);
+        assertTrue(pool.allocate(1000).isDirect());
+        assertEquals("direct", pool.getStatus().getValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureForeignBuffersAreRejected() {
+        new BufferPool().deallocate(ByteBuffer.allocate(1234));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.factory;
+
+import ch.dissem.bitmessage.cryptography.bc.BouncyCryptography;
+import ch.dissem.bitmessage.entity.NetworkMessage;
+import ch.dissem.bitmessage.entity.ObjectMessage;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.exception.NodeException;
+import ch.dissem.bitmessage.ports.Cryptography;
+import ch.dissem.bitmessage.utils.Bytes;
+import ch.dissem.bitmessage.utils.Encode;
+import ch.dissem.bitmessage.utils.Singleton;
+import ch.dissem.bitmessage.utils.TestBase;
+import ch.dissem.bitmessage.utils.TestUtils;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static ch.dissem.bitmessage.entity.NetworkMessage.MAGIC;
+import static ch.dissem.bitmessage.utils.Singleton.cryptography;
+import static ch.dissem.bitmessage.utils.UnixTime.DAY;
+import static ch.dissem.bitmessage.utils.UnixTime.now;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+public class V3MessageReaderTest extends TestBase {
+    @Test
+    public void ensureInventoryVectorIsCalculatedFromReceivedBytes() throws Exception {
+        byte[] payload = TestUtils.getBytes("V4Broadcast.payload");
+        V3MessageReader reader = new V3MessageReader();
+        feed(reader, message(payload, cryptography().sha512(payload)));
+
+        List<NetworkMessage> messages = reader.getMessages();
+        assertEquals(1, messages.size());
+        ObjectMessage object = (ObjectMessage) messages.get(0).getPayload();
+        assertEquals(new InventoryVector(Bytes.truncate(cryptography().doubleSha512(payload), 32)),
+            object.getInventoryVector());
+    }
+
+    @Test
+    public void ensureMessageIsReadFromDirectBuffers() throws Exception {
+        byte[] payload = TestUtils.getBytes("V4Broadcast.payload");
+        BufferPool pool = new BufferPool();
+        pool.setDirect(true);
+        V3MessageReader reader = new V3MessageReader(pool);
+        feed(reader, message(payload, cryptography().sha512(payload)));
+
+        assertEquals(1, reader.getMessages().size());
+        ObjectMessage object = (ObjectMessage) reader.getMessages().get(0).getPayload();
+        assertEquals(new InventoryVector(Bytes.truncate(cryptography().doubleSha512(payload), 32)),
+            object.getInventoryVector());
+        assertEquals(2L, pool.getStatus().getProperty("misses").getValue());
+    }
+
+    @Test
+    public void ensureLargePayloadIsBufferedIncrementally() throws Exception {
+        byte[] payload = objectPayload(now(DAY), 100000);
+        V3MessageReader reader = new V3MessageReader(new BufferPool());
+        ByteBuffer data = message(payload, cryptography().sha512(payload));
+        data.limit(24 + 10000);
+        feed(reader, data, 1000);
+        assertTrue(reader.getBufferedBytes() < 60000);
+
+        data.limit(data.capacity());
+        feed(reader, data, 1000);
+        assertEquals(1, reader.getMessages().size());
+        ObjectMessage object = (ObjectMessage) reader.getMessages().get(0).getPayload();
+        assertEquals(new InventoryVector(Bytes.truncate(cryptography().doubleSha512(payload), 32)),
+            object.getInventoryVector());
+        assertEquals(0, reader.getBufferedBytes());
+    }
+
+    @Test
+    public void ensureSmallPayloadIsHashedWithoutStreamingDigest() throws Exception {
+        Cryptography cryptography = spy(cryptography());
+        Singleton.initialize(cryptography);
+        try {
+            byte[] payload = TestUtils.getBytes("V4Broadcast.payload");
+            V3MessageReader reader = new V3MessageReader(new BufferPool());
+            feed(reader, message(payload, cryptography.sha512(payload)), 100);
+            assertEquals(1, reader.getMessages().size());
+            verify(cryptography, never()).createSha512();
+
+            payload = objectPayload(now(DAY), 100000);
+            feed(reader, message(payload, cryptography.sha512(payload)), 1000);
+            assertEquals(2, reader.getMessages().size());
+            verify(cryptography, times(1)).createSha512();
+        } finally {
+            Singleton.initialize(new BouncyCryptography());
+        }
+    }
+
+    @Test
+    public void ensureFullBufferIsReservedIfPreallocationIsEnabled() throws Exception {
+        byte[] payload = objectPayload(now(DAY), 100000);
+        V3MessageReader reader = new V3MessageReader(new BufferPool());
+        reader.setPreallocate(true);
+        ByteBuffer data = message(payload, cryptography().sha512(payload));
+        data.limit(24 + 100);
+        feed(reader, data);
+        assertEquals(125000, reader.getBufferedBytes());
+    }
+
+    @Test
+    public void ensureObjectsExpiringTooLateAreSkipped() throws Exception {
+        byte[] skipped = objectPayload(now(29 * DAY), 20000);
+        byte[] payload = TestUtils.getBytes("V4Broadcast.payload");
+        ByteBuffer first = message(skipped, cryptography().sha512(skipped));
+        ByteBuffer second = message(payload, cryptography().sha512(payload));
+        ByteBuffer data = ByteBuffer.allocate(first.remaining() + second.remaining());
+        data.put(first).put(second).flip();
+
+        V3MessageReader reader = new V3MessageReader(new BufferPool());
+        feed(reader, data, 3000);
+        assertEquals(1, reader.getMessages().size());
+        ObjectMessage object = (ObjectMessage) reader.getMessages().get(0).getPayload();
+        assertEquals(new InventoryVector(Bytes.truncate(cryptography().doubleSha512(payload), 32)),
+            object.getInventoryVector());
+    }
+
+    @Test(expected = NodeException.class)
+    public void ensureWrongChecksumIsDetected() throws Exception {
+        byte[] payload = TestUtils.getBytes("V4Broadcast.payload");
+        feed(new V3MessageReader(), message(payload, new byte[4]));
+    }
+
+    private static ByteBuffer message(byte[] payload, byte[] checksum) {
+        ByteBuffer buffer = ByteBuffer.allocate(24 + payload.length);
+        Encode.int32(MAGIC, buffer);
+        buffer.put("object".getBytes());
+        buffer.put(new byte[6]);
+        Encode.int32(payload.length, buffer);
+        buffer.put(checksum, 0, 4);
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] objectPayload(long expiresTime, int dataLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(22 + dataLength);
+        buffer.put(new byte[8]);
+        Encode.int64(expiresTime, buffer);
+        Encode.int32(42, buffer);
+        Encode.varInt(1, buffer);
+        Encode.varInt(1, buffer);
+        buffer.put(cryptography().randomBytes(dataLength));
+        return buffer.array();
+    }
+
+    private static void feed(V3MessageReader reader, ByteBuffer data) {
+        feed(reader, data, Integer.MAX_VALUE);
+    }
+
+    private static void feed(V3MessageReader reader, ByteBuffer data, int maxChunkSize) {
+        while (data.hasRemaining()) {
+            ByteBuffer buffer = reader.getActiveBuffer();
+            int length = Math.min(Math.min(data.remaining(), buffer.remaining()), maxChunkSize);
+            ByteBuffer chunk = data.duplicate();
+            chunk.limit(data.position() + length);
+            buffer.put(chunk);
+            data.position(data.position() + length);
+            reader.update();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.ports;
+
+import ch.dissem.bitmessage.utils.Bytes;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static ch.dissem.bitmessage.InternalContext.NETWORK_EXTRA_BYTES;
+import static ch.dissem.bitmessage.InternalContext.NETWORK_NONCE_TRIALS_PER_BYTE;
+import static ch.dissem.bitmessage.ports.AbstractCryptography.bigIntegerProofOfWorkTarget;
+import static ch.dissem.bitmessage.ports.AbstractCryptography.proofOfWorkTarget;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ProofOfWorkTargetTest {
+    private static final Random RANDOM = new Random();
+    private static final long MAX_TTL = 28 * 24 * 60 * 60;
+
+    @Test
+    public void ensureTargetIsCalculatedWithoutBigIntegerForRealisticValues() {
+        for (int i = 0; i < 100_000; i++) {
+            long payloadLength = RANDOM.nextInt(1 << 20);
+            long timeToLive = RANDOM.nextInt((int) MAX_TTL) - 3600;
+            long trials = 1 + RANDOM.nextInt(10_000);
+            long extraBytes = 1 + RANDOM.nextInt(10_000);
+            if (timeToLive < 0) {
+                assertMatchesReference(payloadLength, timeToLive, trials, extraBytes);
+            } else {
+                long target = proofOfWorkTarget(payloadLength, timeToLive, trials, extraBytes);
+                assertNotEquals(0, target);
+                assertArrayEquals(bigIntegerProofOfWorkTarget(payloadLength, timeToLive, trials, extraBytes),
+                        Bytes.fromLong(target));
+            }
+        }
+    }
+
+    @Test
+    public void ensureTargetMatchesReferenceForNetworkDefaults() {
+        for (long payloadLength = 0; payloadLength < 1000; payloadLength++) {
+            for (long timeToLive = -300; timeToLive < MAX_TTL; timeToLive += 9973) {
+                assertMatchesReference(payloadLength, timeToLive, NETWORK_NONCE_TRIALS_PER_BYTE, NETWORK_EXTRA_BYTES);
+            }
+        }
+    }
+
+    @Test
+    public void ensureTargetMatchesReferenceForArbitraryValues() {
+        for (int i = 0; i < 100_000; i++) {
+            assertMatchesReference(
+                    randomValue(), randomValue(), randomValue(), randomValue()
+            );
+        }
+    }
+
+    @Test
+    public void ensureSmallDenominatorsAreLeftToReference() {
+        // denominator 2
+        assertEquals(0, proofOfWorkTarget(1, 0, 2, 0));
+        // denominator 3 is the smallest one handled
+        assertArrayEquals(bigIntegerProofOfWorkTarget(1, 0, 3, 0), Bytes.fromLong(proofOfWorkTarget(1, 0, 3, 0)));
+        // powers of two divide 2^64 without remainder
+        assertArrayEquals(bigIntegerProofOfWorkTarget(1, 0, 1L << 40, 0),
+                Bytes.fromLong(proofOfWorkTarget(1, 0, 1L << 40, 0)));
+    }
+
+    /**
+     * Values of very different magnitudes and signs, so overflows are likely.
+     */
+    private static long randomValue() {
+        switch (RANDOM.nextInt(4)) {
+            case 0:
+                return RANDOM.nextLong();
+            case 1:
+                return RANDOM.nextLong() >> RANDOM.nextInt(64);
+            case 2:
+                return RANDOM.nextInt(1 << 20);
+            default:
+                return RANDOM.nextInt(16) - 8;
+        }
+    }
+
+    private static void assertMatchesReference(long payloadLength, long timeToLive, long trials, long extraBytes) {
+        long target = proofOfWorkTarget(payloadLength, timeToLive, trials, extraBytes);
+        if (target == 0) {
+            // the fast path declined, so the reference implementation is used
+            return;
+        }
+        String message = "payloadLength=" + payloadLength + ", timeToLive=" + timeToLive
+                + ", trials=" + trials + ", extraBytes=" + extraBytes;
+        assertArrayEquals(message, bigIntegerProofOfWorkTarget(payloadLength, timeToLive, trials, extraBytes),
+                Bytes.fromLong(target));
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.ports;
+
+import ch.dissem.bitmessage.entity.BitmessageAddress;
+import ch.dissem.bitmessage.entity.ObjectMessage;
+import ch.dissem.bitmessage.entity.Plaintext;
+import ch.dissem.bitmessage.entity.payload.Msg;
+import ch.dissem.bitmessage.entity.valueobject.PrivateKey;
+import ch.dissem.bitmessage.factory.Factory;
+import ch.dissem.bitmessage.utils.TestBase;
+import ch.dissem.bitmessage.utils.TestUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ch.dissem.bitmessage.entity.Plaintext.Type.MSG;
+import static org.junit.Assert.*;
+
+public class TrialDecryptionTest extends TestBase {
+    private static BitmessageAddress recipient;
+    private static List<BitmessageAddress> identities;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        recipient = TestUtils.loadIdentity("BM-2cSqjfJ8xK6UUn5Rw3RpdGQ9RsDkBhWnS8");
+        identities = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            identities.add(new BitmessageAddress(new PrivateKey(false, 1, 1000, 1000)));
+        }
+    }
+
+    @Test
+    public void ensureSequentialDecryptionFindsRecipient() throws Exception {
+        testDecryption(new SequentialTrialDecryption());
+    }
+
+    @Test
+    public void ensureParallelDecryptionFindsRecipient() throws Exception {
+        testDecryption(new ParallelTrialDecryption(4));
+    }
+
+    @Test
+    public void ensureParallelDecryptionWorksWithFewIdentities() throws Exception {
+        ParallelTrialDecryption decryption = new ParallelTrialDecryption(4);
+        Msg msg = createMsg();
+        List<BitmessageAddress> candidates = new ArrayList<>(identities.subList(0, 2));
+        assertNull(decryption.decrypt(msg, candidates));
+        candidates.add(recipient);
+        assertEquals(recipient, decryption.decrypt(msg, candidates));
+    }
+
+    private void testDecryption(TrialDecryption decryption) throws Exception {
+        Msg msg = createMsg();
+        assertNull(decryption.decrypt(msg, identities));
+        assertFalse(msg.isDecrypted());
+
+        List<BitmessageAddress> candidates = new ArrayList<>(identities);
+        candidates.add(13, recipient);
+        assertEquals(recipient, decryption.decrypt(msg, candidates));
+        assertEquals("T", msg.getPlaintext().getText());
+    }
+
+    private Msg createMsg() throws Exception {
+        ObjectMessage object = new ObjectMessage.Builder()
+            .stream(1)
+            .payload(new Msg(new Plaintext.Builder(MSG)
+                .from(recipient)
+                .to(recipient)
+                .message("S", "T")
+                .build()))
+            .nonce(new byte[8])
+            .build();
+        object.sign(recipient.getPrivateKey());
+        object.encrypt(recipient.getPubkey());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        object.write(out);
+        byte[] data = out.toByteArray();
+        return (Msg) Factory.getObjectMessage(3, new ByteArrayInputStream(data), data.length).getPayload();
+    }
+}
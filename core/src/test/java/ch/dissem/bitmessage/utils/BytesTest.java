@@ -94,4 +94,27 @@ public class BytesTest {
                     100));
         }
     }
+
+    @Test
+    public void testUnsignedLongLowerThan() {
+        BigInteger twoPow64 = BigInteger.ONE.shiftLeft(64);
+        for (int i = 0; i < 1000; i++) {
+            long a = rnd.nextLong();
+            long b = rnd.nextLong();
+            BigInteger ua = a < 0 ? BigInteger.valueOf(a).add(twoPow64) : BigInteger.valueOf(a);
+            BigInteger ub = b < 0 ? BigInteger.valueOf(b).add(twoPow64) : BigInteger.valueOf(b);
+            assertEquals(ua.compareTo(ub) < 0, Bytes.lt(a, b));
+        }
+    }
+
+    @Test
+    public void ensureLongConversionIsReversible() {
+        for (int i = 0; i < 1000; i++) {
+            long value = rnd.nextLong();
+            byte[] bytes = Bytes.fromLong(value);
+            assertEquals(8, bytes.length);
+            assertEquals(value, new BigInteger(1, bytes).longValue());
+            assertEquals(value, Bytes.toLong(bytes));
+        }
+    }
 }
@@ -26,4 +26,23 @@ public class SqlStringsTest {
         long[] test = {1L, 2L};
         assertEquals("1, 2", SqlStrings.join(test).toString());
     }
+
+    @Test
+    public void ensurePlaceholdersAreJoined() {
+        assertEquals("", SqlStrings.placeholders(0).toString());
+        assertEquals("?, ?, ?", SqlStrings.placeholders(3).toString());
+    }
+
+    @Test
+    public void ensureParametersAreInlined() {
+        assertEquals("status='SENT' AND ack_data=X'01ff' AND next_try < 42 AND sender='it''s'",
+                SqlStrings.inline("status=? AND ack_data=? AND next_try < ? AND sender=?",
+                        "SENT", new byte[]{1, (byte) 0xff}, 42L, "it's"));
+        assertEquals("1=1", SqlStrings.inline("1=1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureMissingParametersAreNotIgnored() {
+        SqlStrings.inline("id=? AND status=?", 1L);
+    }
 }
@@ -12,12 +12,27 @@ import ch.dissem.bitmessage.utils.CallbackWaiter;
 import ch.dissem.bitmessage.utils.Singleton;
 import ch.dissem.bitmessage.utils.UnixTime;
 import org.junit.BeforeClass;
+import org.junit.Ignore;
 import org.junit.Test;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.math.ec.ECPoint;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import javax.xml.bind.DatatypeConverter;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static ch.dissem.bitmessage.entity.valueobject.PrivateKey.PRIVATE_KEY_SIZE;
 import static ch.dissem.bitmessage.utils.UnixTime.DAY;
 import static ch.dissem.bitmessage.utils.UnixTime.MINUTE;
 import static org.hamcrest.CoreMatchers.is;
@@ -69,6 +84,170 @@ public class CryptographyTest {
         assertArrayEquals(TEST_SHA512, crypto.sha512("test".getBytes(), "string".getBytes()));
     }
 
+    @Test
+    public void ensureMacOfPartsYieldsSameResultAsMacOfWhole() {
+        byte[] key = crypto.sha512(TEST_VALUE);
+        assertArrayEquals(crypto.mac(key, TEST_VALUE), crypto.mac(key, "test".getBytes(), "string".getBytes()));
+    }
+
+    @Test
+    public void ensurePublicKeyIsCalculatedCorrectly() {
+        ECPoint G = CustomNamedCurves.getByName("secp256k1").getG();
+        for (int i = 0; i < 100; i++) {
+            byte[] privateKey = crypto.randomBytes(PRIVATE_KEY_SIZE);
+            assertArrayEquals(G.multiply(new BigInteger(1, privateKey)).normalize().getEncoded(false),
+                    crypto.createPublicKey(privateKey));
+        }
+    }
+
+    /**
+     * Compares the precomputed comb with the default multiplier. It's not run by default, as it only prints
+     * the results.
+     */
+    @Test
+    @Ignore
+    public void benchmarkPublicKeyCreation() {
+        ECPoint G = CustomNamedCurves.getByName("secp256k1").getG();
+        byte[][] privateKeys = new byte[2000][];
+        for (int i = 0; i < privateKeys.length; i++) {
+            privateKeys[i] = crypto.randomBytes(PRIVATE_KEY_SIZE);
+        }
+        // warm up, this also calculates the comb table for G
+        for (int i = 0; i < 200; i++) {
+            G.multiply(new BigInteger(1, privateKeys[i])).normalize().getEncoded(false);
+            crypto.createPublicKey(privateKeys[i]);
+        }
+
+        long start = System.nanoTime();
+        for (byte[] privateKey : privateKeys) {
+            G.multiply(new BigInteger(1, privateKey)).normalize().getEncoded(false);
+        }
+        long defaultMultiplier = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (byte[] privateKey : privateKeys) {
+            crypto.createPublicKey(privateKey);
+        }
+        long combMultiplier = System.nanoTime() - start;
+
+        System.out.println("Public keys per second: " + privateKeys.length * 1_000_000_000L / defaultMultiplier
+                + " with the default multiplier, " + privateKeys.length * 1_000_000_000L / combMultiplier
+                + " with the precomputed comb");
+    }
+
+    @Test
+    public void ensureInterruptedHashDoesNotAffectTheNextOne() {
+        try {
+            crypto.sha512(TEST_VALUE, null);
+            fail("NullPointerException expected");
+        } catch (NullPointerException expected) {
+            // the digest was updated with the first part only
+        }
+        assertArrayEquals(TEST_SHA512, crypto.sha512(TEST_VALUE));
+        assertArrayEquals(crypto.sha512(TEST_SHA512), crypto.doubleSha512(TEST_VALUE));
+    }
+
+    @Test
+    public void ensureMacUsesTheCurrentKey() throws Exception {
+        byte[] key1 = crypto.sha512(TEST_VALUE);
+        byte[] key2 = crypto.sha512(key1);
+        assertArrayEquals(mac(key1, TEST_VALUE), crypto.mac(key1, TEST_VALUE));
+        assertArrayEquals(mac(key2, TEST_VALUE), crypto.mac(key2, TEST_VALUE));
+        assertArrayEquals(mac(key1, TEST_VALUE), crypto.mac(key1, TEST_VALUE));
+    }
+
+    @Test
+    public void ensureHashesAreCorrectWhenCalculatedConcurrently() throws Exception {
+        final byte[] key = crypto.sha512(TEST_VALUE);
+        final byte[] expectedMac = mac(key, TEST_VALUE);
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        if (!Arrays.equals(TEST_SHA512, crypto.sha512(TEST_VALUE))
+                                || !Arrays.equals(expectedMac, crypto.mac(key, TEST_VALUE))) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+    }
+
+    private static byte[] mac(byte[] key, byte[] data) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256", new BouncyCastleProvider());
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data);
+    }
+
+    /**
+     * Compares reused digests and MACs with new instances per call. It's not run by default, as it only prints
+     * the results.
+     */
+    @Test
+    @Ignore
+    public void benchmarkHashing() throws Exception {
+        Provider provider = new BouncyCastleProvider();
+        int calls = 20_000;
+        // warm up
+        for (int i = 0; i < calls / 10; i++) {
+            MessageDigest.getInstance("SHA-512", provider).digest(TEST_VALUE);
+            crypto.sha512(TEST_VALUE);
+            Mac mac = Mac.getInstance("HmacSHA256", provider);
+            mac.init(new SecretKeySpec(TEST_SHA512, "HmacSHA256"));
+            mac.doFinal(TEST_VALUE);
+            crypto.mac(TEST_SHA512, TEST_VALUE);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            MessageDigest.getInstance("SHA-512", provider).digest(TEST_VALUE);
+        }
+        long newDigest = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            crypto.sha512(TEST_VALUE);
+        }
+        long reusedDigest = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            Mac mac = Mac.getInstance("HmacSHA256", provider);
+            mac.init(new SecretKeySpec(TEST_SHA512, "HmacSHA256"));
+            mac.doFinal(TEST_VALUE);
+        }
+        long newMac = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            crypto.mac(TEST_SHA512, TEST_VALUE);
+        }
+        long reusedMac = System.nanoTime() - start;
+
+        System.out.println("SHA-512 calls per second: " + calls * 1_000_000_000L / newDigest
+                + " with a new instance per call, " + calls * 1_000_000_000L / reusedDigest + " reused");
+        System.out.println("HmacSHA256 calls per second: " + calls * 1_000_000_000L / newMac
+                + " with a new instance per call, " + calls * 1_000_000_000L / reusedMac + " reused");
+    }
+
+    @Test
+    public void ensureBuffersAreHashedFromTheirPosition() {
+        for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(20), ByteBuffer.allocateDirect(20)}) {
+            buffer.put("xx".getBytes()).put(TEST_VALUE).flip();
+            buffer.position(2);
+            assertArrayEquals(TEST_SHA512, crypto.sha512(buffer));
+            assertArrayEquals(crypto.doubleSha512(TEST_VALUE), crypto.doubleSha512(buffer));
+            assertEquals(2, buffer.position());
+        }
+    }
+
     @Test
     public void ensureDoubleHashYieldsSameResultAsHashOfHash() {
         assertArrayEquals(crypto.sha512(TEST_SHA512), crypto.doubleSha512(TEST_VALUE));
@@ -109,6 +288,42 @@ public class CryptographyTest {
         }
     }
 
+    @Test
+    public void ensureBatchCheckReturnsResultPerObject() throws Exception {
+        ObjectMessage valid = new ObjectMessage.Builder()
+                .nonce(new byte[8])
+                .expiresTime(UnixTime.now(+2 * MINUTE))
+                .objectType(0)
+                .payload(GenericPayload.read(0, 1, new ByteArrayInputStream(new byte[0]), 0))
+                .build();
+        final CallbackWaiter<byte[]> waiter = new CallbackWaiter<>();
+        crypto.doProofOfWork(valid, 1000, 1000,
+                new ProofOfWorkEngine.Callback() {
+                    @Override
+                    public void onNonceCalculated(byte[] initialHash, byte[] nonce) {
+                        waiter.setValue(nonce);
+                    }
+                });
+        valid.setNonce(waiter.waitForValue());
+        ObjectMessage invalid = new ObjectMessage.Builder()
+                .nonce(new byte[8])
+                .expiresTime(UnixTime.now(+28 * DAY))
+                .objectType(0)
+                .payload(GenericPayload.read(0, 1, new ByteArrayInputStream(new byte[0]), 0))
+                .build();
+        List<ObjectMessage> objects = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            objects.add(i % 3 == 0 ? valid : invalid);
+        }
+
+        boolean[] result = crypto.checkProofOfWork(objects, 1000, 1000);
+
+        assertEquals(objects.size(), result.length);
+        for (int i = 0; i < result.length; i++) {
+            assertThat(result[i], is(i % 3 == 0));
+        }
+    }
+
     @Test
     public void ensureEncryptionAndDecryptionWorks() {
         byte[] data = crypto.randomBytes(100);
@@ -35,7 +35,9 @@ import org.spongycastle.jce.provider.BouncyCastleProvider;
 import org.spongycastle.jce.spec.ECParameterSpec;
 import org.spongycastle.jce.spec.ECPrivateKeySpec;
 import org.spongycastle.jce.spec.ECPublicKeySpec;
+import org.spongycastle.math.ec.ECMultiplier;
 import org.spongycastle.math.ec.ECPoint;
+import org.spongycastle.math.ec.FixedPointCombMultiplier;
 
 import java.math.BigInteger;
 import java.security.GeneralSecurityException;
@@ -52,6 +54,13 @@ import java.util.Arrays;
 public class SpongyCryptography extends AbstractCryptography {
     private static final X9ECParameters EC_CURVE_PARAMETERS = CustomNamedCurves.getByName("secp256k1");
     private static final String ALGORITHM_ECDSA = "ECDSA";
+    /**
+     * Public keys are always calculated from the same generator point, so a comb table for G is precomputed once
+     * and then reused. Other multiplications use the curve's default multiplier, which for secp256k1 already makes
+     * use of the GLV endomorphism.
+     */
+    private static final ECPoint G = EC_CURVE_PARAMETERS.getG();
+    private static final ECMultiplier G_MULTIPLIER = new FixedPointCombMultiplier();
 
     public SpongyCryptography() {
         super(new BouncyCastleProvider());
@@ -82,7 +91,7 @@ public class SpongyCryptography extends AbstractCryptography {
 
     @Override
     public byte[] createPublicKey(byte[] privateKey) {
-        return EC_CURVE_PARAMETERS.getG().multiply(keyToBigInt(privateKey)).normalize().getEncoded(false);
+        return G_MULTIPLIER.multiply(G, keyToBigInt(privateKey)).normalize().getEncoded(false);
     }
 
     private ECPoint keyToPoint(byte[] publicKey) {
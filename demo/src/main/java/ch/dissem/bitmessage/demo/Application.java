@@ -21,6 +21,7 @@ import ch.dissem.bitmessage.entity.BitmessageAddress;
 import ch.dissem.bitmessage.entity.Plaintext;
 import ch.dissem.bitmessage.entity.payload.Pubkey;
 import ch.dissem.bitmessage.entity.valueobject.Label;
+import ch.dissem.bitmessage.repository.JdbcConfig;
 import org.apache.commons.lang3.text.WordUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,8 +41,10 @@ public class Application {
     private final CommandLine commandLine;
 
     private BitmessageContext ctx;
+    private final JdbcConfig jdbcConfig;
 
-    public Application(BitmessageContext.Builder ctxBuilder, InetAddress syncServer, int syncPort) {
+    public Application(BitmessageContext.Builder ctxBuilder, JdbcConfig jdbcConfig, InetAddress syncServer, int syncPort) {
+        this.jdbcConfig = jdbcConfig;
         ctx = ctxBuilder
             .listener(plaintext -> System.out.println("New Message from " + plaintext.getFrom() + ": " + plaintext.getSubject()))
             .build();
@@ -109,6 +112,7 @@ public class Application {
         do {
             System.out.println();
             System.out.println(ctx.status());
+            System.out.println(jdbcConfig.getStatus());
             System.out.println();
             System.out.println("c) cleanup inventory");
             System.out.println("r) resend unacknowledged messages");
@@ -95,8 +95,9 @@ public class Main {
             }
         } else {
             InetAddress syncServer = options.syncServer == null ? null : InetAddress.getByName(options.syncServer);
-            new Application(ctxBuilder, syncServer, options.syncPort);
+            new Application(ctxBuilder, jdbcConfig, syncServer, options.syncPort);
         }
+        jdbcConfig.close();
     }
 
     private static class CmdLineOptions {
@@ -39,11 +39,13 @@ public class SystemTest {
     private final NetworkHandler aliceNetworkHandler;
     private final NetworkHandler bobNetworkHandler;
 
+    private JdbcConfig aliceDB;
     private BitmessageContext alice;
     private TestListener aliceListener = new TestListener();
     private Labeler aliceLabeler = Mockito.spy(new DebugLabeler("Alice"));
     private BitmessageAddress aliceIdentity;
 
+    private JdbcConfig bobDB;
     private BitmessageContext bob;
     private TestListener bobListener = new TestListener();
     private BitmessageAddress bobIdentity;
@@ -68,7 +70,7 @@ public class SystemTest {
         TTL.msg(5 * MINUTE);
         TTL.getpubkey(5 * MINUTE);
         TTL.pubkey(5 * MINUTE);
-        JdbcConfig aliceDB = new JdbcConfig("jdbc:h2:mem:alice;DB_CLOSE_DELAY=-1", "sa", "");
+        aliceDB = new JdbcConfig("jdbc:h2:mem:alice;DB_CLOSE_DELAY=-1", "sa", "");
         alice = new BitmessageContext.Builder()
                 .addressRepo(new JdbcAddressRepository(aliceDB))
                 .inventory(new JdbcInventory(aliceDB))
@@ -84,7 +86,7 @@ public class SystemTest {
         alice.startup();
         aliceIdentity = alice.createIdentity(false, DOES_ACK);
 
-        JdbcConfig bobDB = new JdbcConfig("jdbc:h2:mem:bob;DB_CLOSE_DELAY=-1", "sa", "");
+        bobDB = new JdbcConfig("jdbc:h2:mem:bob;DB_CLOSE_DELAY=-1", "sa", "");
         bob = new BitmessageContext.Builder()
                 .addressRepo(new JdbcAddressRepository(bobDB))
                 .inventory(new JdbcInventory(bobDB))
@@ -108,6 +110,8 @@ public class SystemTest {
     public void tearDown() {
         alice.shutdown();
         bob.shutdown();
+        aliceDB.close();
+        bobDB.close();
     }
 
     @Test(timeout = 60_000)
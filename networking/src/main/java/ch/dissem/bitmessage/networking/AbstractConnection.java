@@ -32,6 +32,10 @@ import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static ch.dissem.bitmessage.InternalContext.NETWORK_EXTRA_BYTES;
 import static ch.dissem.bitmessage.InternalContext.NETWORK_NONCE_TRIALS_PER_BYTE;
@@ -39,7 +43,6 @@ import static ch.dissem.bitmessage.networking.AbstractConnection.Mode.SERVER;
 import static ch.dissem.bitmessage.networking.AbstractConnection.Mode.SYNC;
 import static ch.dissem.bitmessage.networking.AbstractConnection.State.*;
 import static ch.dissem.bitmessage.utils.Singleton.cryptography;
-import static ch.dissem.bitmessage.utils.UnixTime.MINUTE;
 
 /**
  * Contains everything used by both the old streams-oriented NetworkHandler and the new NioNetworkHandler,
@@ -52,7 +55,13 @@ public abstract class AbstractConnection {
     protected final NetworkAddress host;
     protected final NetworkAddress node;
     protected final NetworkHandler.MessageListener listener;
-    protected final Map<InventoryVector, Long> ivCache;
+    private final IvCache ivCache;
+    private final long trickleInterval;
+    private final Queue<InventoryVector> announcements = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingAnnouncements = new AtomicInteger();
+    private final AtomicLong announcementMessages = new AtomicLong();
+    private final AtomicLong announcedObjects = new AtomicLong();
+    private volatile long nextAnnouncement;
     protected final Deque<MessagePayload> sendingQueue;
     protected final Map<InventoryVector, Long> commonRequestedObjects;
     protected final Set<InventoryVector> requestedObjects;
@@ -80,7 +89,9 @@ public abstract class AbstractConnection {
         this.listener = context.getNetworkListener();
         this.syncTimeout = (syncTimeout > 0 ? UnixTime.now(+syncTimeout) : 0);
         this.requestedObjects = Collections.newSetFromMap(new ConcurrentHashMap<InventoryVector, Boolean>(10_000));
-        this.ivCache = new ConcurrentHashMap<>();
+        this.ivCache = new IvCache(context.getCompactIvCacheSize());
+        this.trickleInterval = context.getTrickleInterval();
+        this.nextAnnouncement = System.currentTimeMillis() + nextTrickleDelay();
         this.sendingQueue = new ConcurrentLinkedDeque<>();
         this.state = CONNECTING;
         this.commonRequestedObjects = commonRequestedObjects;
@@ -141,23 +152,45 @@ public abstract class AbstractConnection {
 
     private void receiveMessage(Inv inv) {
         int originalSize = inv.getInventory().size();
-        updateIvCache(inv.getInventory());
+        ivCache.addAll(inv.getInventory());
         List<InventoryVector> missing = ctx.getInventory().getMissing(inv.getInventory(), streams);
-        missing.removeAll(commonRequestedObjects.keySet());
         LOG.trace("Received inventory with " + originalSize + " elements, of which are "
             + missing.size() + " missing.");
+        requestMissing(missing);
+    }
+
+    /**
+     * Requests announced objects that are missing in the inventory. By default, they are requested right away
+     * from this node, unless they're already requested from another one.
+     */
+    protected void requestMissing(List<InventoryVector> missing) {
+        missing.removeAll(commonRequestedObjects.keySet());
         send(new GetData.Builder().inventory(missing).build());
     }
 
     private void receiveMessage(GetData getData) {
-        for (InventoryVector iv : getData.getInventory()) {
-            ObjectMessage om = ctx.getInventory().getObject(iv);
-            if (om != null) sendingQueue.offer(om);
+        sendObjects(getData.getInventory());
+    }
+
+    /**
+     * Queues the requested objects for sending. By default, they're loaded from the inventory in one go.
+     */
+    protected void sendObjects(List<InventoryVector> inventory) {
+        for (ObjectMessage om : ctx.getInventory().getObjects(inventory)) {
+            sendingQueue.offer(om);
         }
     }
 
     private void receiveMessage(ObjectMessage objectMessage) {
         requestedObjects.remove(objectMessage.getInventoryVector());
+        processObject(objectMessage);
+    }
+
+    /**
+     * Checks, stores and distributes a received object. Implementations may override this to
+     * process objects asynchronously.
+     */
+    protected void processObject(ObjectMessage objectMessage) {
         if (ctx.getInventory().contains(objectMessage)) {
             LOG.trace("Received object " + objectMessage.getInventoryVector() + " - already in inventory");
             return;
@@ -186,38 +219,81 @@ public abstract class AbstractConnection {
         ctx.getNodeRegistry().offerAddresses(addr.getAddresses());
     }
 
-    private void updateIvCache(List<InventoryVector> inventory) {
-        cleanupIvCache();
-        Long now = UnixTime.now();
-        for (InventoryVector iv : inventory) {
-            ivCache.put(iv, now);
+    /**
+     * Announces the object to the node. Unless the trickle interval is 0, the announcement is only sent with
+     * the next batch, see {@link #updateAnnouncements()}.
+     */
+    public void offer(InventoryVector iv) {
+        ivCache.add(iv);
+        announcements.offer(iv);
+        if (trickleInterval <= 0) {
+            flushAnnouncements();
+        } else if (pendingAnnouncements.incrementAndGet() >= Inv.MAX_INVENTORY_SIZE) {
+            flushAnnouncements();
         }
     }
 
-    public void offer(InventoryVector iv) {
-        sendingQueue.offer(new Inv.Builder()
-            .addInventoryVector(iv)
-            .build());
-        updateIvCache(Collections.singletonList(iv));
+    /**
+     * Sends the collected announcements if they are due. Must be called regularly, at least about once per
+     * second.
+     */
+    public void updateAnnouncements() {
+        long now = System.currentTimeMillis();
+        if (now >= nextAnnouncement) {
+            nextAnnouncement = now + nextTrickleDelay();
+            flushAnnouncements();
+        }
+    }
+
+    private void flushAnnouncements() {
+        List<InventoryVector> inventory = new ArrayList<>();
+        InventoryVector iv;
+        while (inventory.size() < Inv.MAX_INVENTORY_SIZE && (iv = announcements.poll()) != null) {
+            inventory.add(iv);
+        }
+        if (!inventory.isEmpty()) {
+            if (trickleInterval > 0) {
+                pendingAnnouncements.addAndGet(-inventory.size());
+            }
+            announcementMessages.incrementAndGet();
+            announcedObjects.addAndGet(inventory.size());
+            sendingQueue.offer(new Inv.Builder().inventory(inventory).build());
+        }
+    }
+
+    /**
+     * A random delay between half and one and a half times the trickle interval, so announcements to different
+     * nodes aren't sent at the same time, which would make it easier to find out where an object originated.
+     */
+    private long nextTrickleDelay() {
+        if (trickleInterval <= 0) {
+            return 0;
+        }
+        return trickleInterval / 2 + ThreadLocalRandom.current().nextLong(trickleInterval + 1);
+    }
+
+    /**
+     * @return the number of 'inv' messages queued for sending by {@link #offer(InventoryVector)}
+     */
+    public long getAnnouncementMessages() {
+        return announcementMessages.get();
+    }
+
+    /**
+     * @return the number of objects announced by {@link #offer(InventoryVector)}
+     */
+    public long getAnnouncedObjects() {
+        return announcedObjects.get();
     }
 
     public boolean knowsOf(InventoryVector iv) {
-        return ivCache.containsKey(iv);
+        return ivCache.contains(iv);
     }
 
     public boolean requested(InventoryVector iv) {
         return requestedObjects.contains(iv);
     }
 
-    private void cleanupIvCache() {
-        Long fiveMinutesAgo = UnixTime.now(-5 * MINUTE);
-        for (Map.Entry<InventoryVector, Long> entry : ivCache.entrySet()) {
-            if (entry.getValue() < fiveMinutesAgo) {
-                ivCache.remove(entry.getKey());
-            }
-        }
-    }
-
     private void handleCommand(MessagePayload payload) {
         switch (payload.getCommand()) {
             case VERSION:
@@ -210,6 +210,7 @@ class Connection extends AbstractConnection {
             try (Socket socket = Connection.this.socket) {
                 initSocket(socket);
                 while (state != DISCONNECTED) {
+                    updateAnnouncements();
                     if (sendingQueue.isEmpty()) {
                         Thread.sleep(1000);
                     } else {
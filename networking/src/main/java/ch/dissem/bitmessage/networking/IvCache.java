@@ -0,0 +1,204 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking;
+
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static ch.dissem.bitmessage.utils.UnixTime.MINUTE;
+
+/**
+ * Remembers which inventory vectors a node knows of, i.e. which ones it announced or were offered to it, for five
+ * to six minutes. Entries are kept in generations of one minute each, so expiring them just means dropping the
+ * oldest generation instead of checking every single entry.
+ * <p>
+ * In compact mode, each generation is a Bloom filter instead of a set. It needs about 13 bits instead of roughly
+ * 100 bytes per entry, but {@link #contains(InventoryVector)} may return <code>true</code> for inventory vectors
+ * that were never added. As long as no more than the expected number of entries are added per minute, this
+ * happens for about 1% of them. Since a false positive in any generation counts, each one is sized for a sixth
+ * of that rate.
+ * </p>
+ */
+class IvCache {
+    private static final long GENERATION_MILLIS = MINUTE * 1000L;
+    private static final int GENERATIONS = 6;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final double GENERATION_FALSE_POSITIVE_RATE = FALSE_POSITIVE_RATE / GENERATIONS;
+
+    private final int expectedEntriesPerGeneration;
+    private final AtomicReferenceArray<Generation> generations = new AtomicReferenceArray<>(GENERATIONS);
+    private volatile long current;
+
+    /**
+     * Creates a cache that keeps the exact inventory vectors.
+     */
+    IvCache() {
+        this(0);
+    }
+
+    /**
+     * @param expectedEntriesPerMinute if larger than 0, Bloom filters sized for this many entries per minute are
+     *                                 used instead of exact sets
+     */
+    IvCache(int expectedEntriesPerMinute) {
+        this.expectedEntriesPerGeneration = expectedEntriesPerMinute;
+        this.current = generation(System.currentTimeMillis());
+        for (int i = 0; i < GENERATIONS; i++) {
+            generations.set(i, newGeneration());
+        }
+    }
+
+    void add(InventoryVector iv) {
+        currentGeneration().add(iv);
+    }
+
+    void addAll(Collection<InventoryVector> inventory) {
+        Generation generation = currentGeneration();
+        for (InventoryVector iv : inventory) {
+            generation.add(iv);
+        }
+    }
+
+    boolean contains(InventoryVector iv) {
+        long now = rotate();
+        for (int i = 0; i < GENERATIONS; i++) {
+            if (generations.get((int) ((now - i) % GENERATIONS)).contains(iv)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Generation currentGeneration() {
+        return generations.get((int) (rotate() % GENERATIONS));
+    }
+
+    /**
+     * Replaces all generations that expired since the last call.
+     *
+     * @return the current generation number
+     */
+    private long rotate() {
+        long now = generation(System.currentTimeMillis());
+        if (now != current) {
+            synchronized (this) {
+                long expired = Math.max(current + 1, now - GENERATIONS + 1);
+                for (long g = expired; g <= now; g++) {
+                    generations.set((int) (g % GENERATIONS), newGeneration());
+                }
+                if (now > current) {
+                    current = now;
+                }
+            }
+        }
+        return current;
+    }
+
+    private static long generation(long timeMillis) {
+        return timeMillis / GENERATION_MILLIS;
+    }
+
+    private Generation newGeneration() {
+        if (expectedEntriesPerGeneration > 0) {
+            return new BloomFilter(expectedEntriesPerGeneration, GENERATION_FALSE_POSITIVE_RATE);
+        } else {
+            return new ExactGeneration();
+        }
+    }
+
+    private interface Generation {
+        void add(InventoryVector iv);
+
+        boolean contains(InventoryVector iv);
+    }
+
+    private static class ExactGeneration implements Generation {
+        private final Set<InventoryVector> entries =
+            Collections.newSetFromMap(new ConcurrentHashMap<InventoryVector, Boolean>());
+
+        @Override
+        public void add(InventoryVector iv) {
+            entries.add(iv);
+        }
+
+        @Override
+        public boolean contains(InventoryVector iv) {
+            return entries.contains(iv);
+        }
+    }
+
+    /**
+     * As inventory vectors are hashes themselves, the bit indices are simply taken from their bytes.
+     */
+    static class BloomFilter implements Generation {
+        private final AtomicLongArray bits;
+        private final long size;
+        private final int hashes;
+
+        BloomFilter(int expectedEntries, double falsePositiveRate) {
+            long m = (long) Math.ceil(-expectedEntries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            this.size = Math.max(64, m);
+            // each hash takes four bytes of the 32 byte inventory vector, so there can be up to eight
+            this.hashes = Math.max(1, Math.min(8, (int) Math.round((double) size / expectedEntries * Math.log(2))));
+            this.bits = new AtomicLongArray((int) ((size + 63) / 64));
+        }
+
+        @Override
+        public void add(InventoryVector iv) {
+            byte[] hash = iv.getHash();
+            for (int i = 0; i < hashes; i++) {
+                long index = index(hash, i);
+                long mask = 1L << (index & 63);
+                int word = (int) (index >>> 6);
+                long value;
+                do {
+                    value = bits.get(word);
+                    if ((value & mask) != 0) {
+                        break;
+                    }
+                } while (!bits.compareAndSet(word, value, value | mask));
+            }
+        }
+
+        @Override
+        public boolean contains(InventoryVector iv) {
+            byte[] hash = iv.getHash();
+            for (int i = 0; i < hashes; i++) {
+                long index = index(hash, i);
+                if ((bits.get((int) (index >>> 6)) & (1L << (index & 63))) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long index(byte[] hash, int i) {
+            int offset = 4 * i;
+            long value = (hash[offset] & 0xFFL) << 24
+                | (hash[offset + 1] & 0xFFL) << 16
+                | (hash[offset + 2] & 0xFFL) << 8
+                | (hash[offset + 3] & 0xFFL);
+            return value % size;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import ch.dissem.bitmessage.InternalContext;
 import ch.dissem.bitmessage.entity.GetData;
 import ch.dissem.bitmessage.entity.MessagePayload;
 import ch.dissem.bitmessage.entity.NetworkMessage;
+import ch.dissem.bitmessage.entity.ObjectMessage;
 import ch.dissem.bitmessage.entity.Version;
 import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
 import ch.dissem.bitmessage.entity.valueobject.NetworkAddress;
@@ -30,24 +31,49 @@ import ch.dissem.bitmessage.utils.UnixTime;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static ch.dissem.bitmessage.networking.AbstractConnection.Mode.CLIENT;
 import static ch.dissem.bitmessage.networking.AbstractConnection.Mode.SYNC;
+import static ch.dissem.bitmessage.networking.AbstractConnection.State.ACTIVE;
+import static ch.dissem.bitmessage.ports.NetworkHandler.HEADER_SIZE;
 
 /**
  * Represents the current state of a connection.
  */
 public class ConnectionInfo extends AbstractConnection {
-    private final ByteBuffer headerOut = ByteBuffer.allocate(24);
-    private ByteBuffer payloadOut;
+    private static final ByteBuffer[] NO_BUFFERS = new ByteBuffer[0];
+    /**
+     * Queued messages are written together until the batch holds this many bytes. As there are up to two
+     * buffers per message, the message count is limited as well, well below the usual maximum of 1024 buffers
+     * per gathering write.
+     */
+    static final int MAX_BATCH_BYTES = 256 * 1024;
+    static final int MAX_BATCH_MESSAGES = 256;
+
+    private volatile ByteBuffer[] out = NO_BUFFERS;
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong writeCalls = new AtomicLong();
+    private final AtomicLong messagesWritten = new AtomicLong();
     private V3MessageReader reader = new V3MessageReader();
+    private final ObjectPipeline pipeline;
+    private final DownloadScheduler scheduler;
+    private final ObjectCache objectCache;
     private boolean syncFinished;
     private long lastUpdate = System.currentTimeMillis();
 
     public ConnectionInfo(InternalContext context, Mode mode, NetworkAddress node,
                           Map<InventoryVector, Long> commonRequestedObjects, long syncTimeout) {
+        this(context, mode, node, commonRequestedObjects, syncTimeout, null, null, null);
+    }
+
+    ConnectionInfo(InternalContext context, Mode mode, NetworkAddress node,
+                   Map<InventoryVector, Long> commonRequestedObjects, long syncTimeout,
+                   ObjectPipeline pipeline, DownloadScheduler scheduler, ObjectCache objectCache) {
         super(context, mode, node, commonRequestedObjects, syncTimeout);
-        headerOut.flip();
+        this.pipeline = pipeline;
+        this.scheduler = scheduler;
+        this.objectCache = objectCache;
         if (mode == CLIENT || mode == SYNC) {
             send(new Version.Builder().defaults(ctx.getClientNonce()).addrFrom(host).addrRecv(node).build());
         }
@@ -57,10 +83,6 @@ public class ConnectionInfo extends AbstractConnection {
         return state;
     }
 
-    public boolean knowsOf(InventoryVector iv) {
-        return ivCache.containsKey(iv);
-    }
-
     public Queue<MessagePayload> getSendingQueue() {
         return sendingQueue;
     }
@@ -72,27 +94,83 @@ public class ConnectionInfo extends AbstractConnection {
         return reader.getActiveBuffer();
     }
 
+    /**
+     * As soon as the previous batch is written, serializes as many queued messages as fit into the next batch,
+     * so they can be written with one gathering write.
+     */
     public void updateWriter() {
-        if (!headerOut.hasRemaining() && !sendingQueue.isEmpty()) {
-            headerOut.clear();
-            MessagePayload payload = sendingQueue.poll();
-            payloadOut = new NetworkMessage(payload).writeHeaderAndGetPayloadBuffer(headerOut);
-            headerOut.flip();
-            lastUpdate = System.currentTimeMillis();
+        if (hasRemaining(out) || sendingQueue.isEmpty()) {
+            return;
         }
+        List<ByteBuffer> buffers = new ArrayList<>();
+        int size = 0;
+        int messages = 0;
+        MessagePayload payload;
+        while (size < MAX_BATCH_BYTES && messages < MAX_BATCH_MESSAGES
+            && (payload = sendingQueue.poll()) != null) {
+            if (payload instanceof SerializedObject) {
+                ByteBuffer message = ((SerializedObject) payload).getMessageBuffer();
+                buffers.add(message);
+                size += message.remaining();
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                ByteBuffer payloadBuffer = new NetworkMessage(payload).writeHeaderAndGetPayloadBuffer(header);
+                header.flip();
+                buffers.add(header);
+                buffers.add(payloadBuffer);
+                size += HEADER_SIZE + payloadBuffer.remaining();
+            }
+            messages++;
+        }
+        out = buffers.toArray(new ByteBuffer[buffers.size()]);
+        messagesWritten.addAndGet(messages);
+        lastUpdate = System.currentTimeMillis();
     }
 
     public ByteBuffer[] getOutBuffers() {
-        return new ByteBuffer[]{headerOut, payloadOut};
+        return out;
+    }
+
+    /**
+     * Must be called after each write to the channel, for the statistics.
+     *
+     * @param bytes the number of bytes written
+     */
+    public void written(long bytes) {
+        writeCalls.incrementAndGet();
+        bytesWritten.addAndGet(bytes);
     }
 
     public void cleanupBuffers() {
-        if (payloadOut != null && !payloadOut.hasRemaining()) {
-            payloadOut = null;
+        if (!hasRemaining(out)) {
+            out = NO_BUFFERS;
         }
     }
 
+    static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long getWriteCalls() {
+        return writeCalls.get();
+    }
+
+    public long getMessagesWritten() {
+        return messagesWritten.get();
+    }
+
     public void updateReader() {
+        // handling a message might disconnect the node, which releases the reader
+        V3MessageReader reader = this.reader;
         reader.update();
         if (!reader.getMessages().isEmpty()) {
             Iterator<NetworkMessage> iterator = reader.getMessages().iterator();
@@ -103,10 +181,24 @@ public class ConnectionInfo extends AbstractConnection {
                 iterator.remove();
             }
             syncFinished = syncFinished(msg);
+            // large payloads are only buffered in full for peers that completed the handshake
+            reader.setPreallocate(state == ACTIVE);
         }
         lastUpdate = System.currentTimeMillis();
     }
 
+    /**
+     * @return the number of bytes currently buffered for this connection, incoming and outgoing
+     */
+    public int getBufferedBytes() {
+        V3MessageReader reader = this.reader;
+        int result = reader == null ? 0 : reader.getBufferedBytes();
+        for (ByteBuffer buffer : out) {
+            result += buffer.capacity();
+        }
+        return result;
+    }
+
     public void updateSyncStatus() {
         if (!syncFinished) {
             syncFinished = (reader == null || reader.getMessages().isEmpty()) && syncFinished(null);
@@ -131,17 +223,65 @@ public class ConnectionInfo extends AbstractConnection {
     @Override
     public void disconnect() {
         super.disconnect();
+        if (scheduler != null) {
+            scheduler.disconnected(this);
+        }
         if (reader != null) {
             reader.cleanup();
             reader = null;
         }
-        payloadOut = null;
+        out = NO_BUFFERS;
     }
 
     public boolean isSyncFinished() {
         return syncFinished;
     }
 
+    @Override
+    protected void requestMissing(List<InventoryVector> missing) {
+        if (scheduler == null) {
+            super.requestMissing(missing);
+        } else {
+            scheduler.announced(this, missing);
+        }
+    }
+
+    @Override
+    protected void sendObjects(List<InventoryVector> inventory) {
+        if (objectCache == null) {
+            super.sendObjects(inventory);
+            return;
+        }
+        List<InventoryVector> missing = new ArrayList<>(inventory.size());
+        for (InventoryVector iv : inventory) {
+            SerializedObject object = objectCache.get(iv);
+            if (object == null) {
+                missing.add(iv);
+            } else {
+                sendingQueue.offer(object);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (ObjectMessage objectMessage : ctx.getInventory().getObjects(missing)) {
+                SerializedObject object = new SerializedObject(objectMessage);
+                objectCache.put(objectMessage.getInventoryVector(), object);
+                sendingQueue.offer(object);
+            }
+        }
+    }
+
+    @Override
+    protected void processObject(ObjectMessage objectMessage) {
+        if (scheduler != null) {
+            scheduler.received(this, objectMessage.getInventoryVector());
+        }
+        if (pipeline == null) {
+            super.processObject(objectMessage);
+        } else {
+            pipeline.offer(objectMessage);
+        }
+    }
+
     @Override
     protected void send(MessagePayload payload) {
         sendingQueue.add(payload);
@@ -156,8 +296,6 @@ public class ConnectionInfo extends AbstractConnection {
     }
 
     public boolean isWritePending() {
-        return !sendingQueue.isEmpty()
-            || headerOut != null && headerOut.hasRemaining()
-            || payloadOut != null && payloadOut.hasRemaining();
+        return !sendingQueue.isEmpty() || hasRemaining(out);
     }
 }
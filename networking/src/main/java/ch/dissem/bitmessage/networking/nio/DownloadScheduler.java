@@ -0,0 +1,319 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.nio;
+
+import ch.dissem.bitmessage.entity.GetData;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.utils.Property;
+
+import java.util.*;
+
+import static ch.dissem.bitmessage.networking.AbstractConnection.State.ACTIVE;
+
+/**
+ * Decides which object is downloaded from which peer. It keeps an index of the peers that announced each
+ * missing object, and requests every object from the least loaded peer that has it. Objects announced by only
+ * a few peers are assigned first, so they aren't stuck behind objects that could also be fetched elsewhere.
+ * <p>
+ * Each peer has at most {@value #MAX_IN_FLIGHT} objects requested at a time. When a peer disconnects or an
+ * object takes too long, it is requested from another peer that announced it.
+ * </p>
+ */
+class DownloadScheduler {
+    static final int MAX_IN_FLIGHT = 1000;
+    /**
+     * A peer only gets more objects once at least half of its requests were answered, so we don't send
+     * a <code>getdata</code> message for every single object.
+     */
+    private static final int REFILL_THRESHOLD = MAX_IN_FLIGHT / 2;
+
+    private final long timeoutMillis;
+    private final Map<InventoryVector, Download> downloads = new HashMap<>();
+    private final Map<ConnectionInfo, Peer> peers = new HashMap<>();
+
+    /**
+     * @param timeoutMillis requested objects that weren't received after this time may be requested from
+     *                      another peer
+     */
+    DownloadScheduler(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Registers objects that are announced by the connection and are missing in the inventory, and requests
+     * them from the best suited peers.
+     */
+    synchronized void announced(ConnectionInfo connection, Collection<InventoryVector> missing) {
+        if (connection.getState() != ACTIVE) {
+            return;
+        }
+        Peer peer = getPeer(connection);
+        List<Download> candidates = new ArrayList<>(missing.size());
+        for (InventoryVector iv : missing) {
+            Download download = downloads.get(iv);
+            if (download == null) {
+                download = new Download(iv);
+                downloads.put(iv, download);
+            }
+            if (download.holders.add(peer)) {
+                peer.held.add(download);
+                if (download.assignee == null) {
+                    peer.unassigned.add(download);
+                }
+            }
+            if (download.assignee == null) {
+                candidates.add(download);
+            }
+        }
+        schedule(candidates);
+    }
+
+    /**
+     * Must be called for every object received, requested or not.
+     */
+    synchronized void received(ConnectionInfo connection, InventoryVector iv) {
+        Download download = downloads.remove(iv);
+        if (download == null) {
+            return;
+        }
+        for (Peer holder : download.holders) {
+            holder.held.remove(download);
+            holder.unassigned.remove(download);
+        }
+        Peer assignee = download.assignee;
+        if (assignee != null) {
+            assignee.inFlight.remove(download);
+            if (assignee.connection == connection) {
+                assignee.recordLatency(System.currentTimeMillis() - download.requestTime);
+            }
+            if (assignee.inFlight.size() <= REFILL_THRESHOLD) {
+                refill(assignee);
+            }
+        }
+    }
+
+    /**
+     * Forgets the connection and requests the objects it didn't deliver from other peers.
+     */
+    synchronized void disconnected(ConnectionInfo connection) {
+        Peer peer = peers.remove(connection);
+        if (peer == null) {
+            return;
+        }
+        for (Download download : peer.held) {
+            download.holders.remove(peer);
+            if (download.holders.isEmpty()) {
+                downloads.remove(download.iv);
+            }
+        }
+        List<Download> orphans = new ArrayList<>(peer.inFlight.size());
+        for (Download download : peer.inFlight) {
+            if (!download.holders.isEmpty()) {
+                unassign(download);
+                orphans.add(download);
+            }
+        }
+        schedule(orphans);
+    }
+
+    /**
+     * Requests the given objects again, unless they were requested only recently. Peers that didn't deliver an
+     * object in time aren't asked for it again. For objects unknown to the scheduler, all active connections
+     * are asked if they know of them.
+     *
+     * @return the objects no active peer knows of
+     */
+    synchronized List<InventoryVector> request(Collection<InventoryVector> inventoryVectors,
+                                               Collection<ConnectionInfo> connections) {
+        long timedOut = System.currentTimeMillis() - timeoutMillis;
+        List<Download> candidates = new ArrayList<>(inventoryVectors.size());
+        List<InventoryVector> unavailable = new LinkedList<>();
+        for (InventoryVector iv : inventoryVectors) {
+            Download download = downloads.get(iv);
+            if (download == null) {
+                download = new Download(iv);
+                for (ConnectionInfo connection : connections) {
+                    if (connection.getState() == ACTIVE && connection.knowsOf(iv)) {
+                        Peer peer = getPeer(connection);
+                        download.holders.add(peer);
+                        peer.held.add(download);
+                        peer.unassigned.add(download);
+                    }
+                }
+                if (download.holders.isEmpty()) {
+                    unavailable.add(iv);
+                    continue;
+                }
+                downloads.put(iv, download);
+            } else if (download.assignee != null) {
+                if (download.requestTime > timedOut) {
+                    continue;
+                }
+                Peer failed = download.assignee;
+                failed.inFlight.remove(download);
+                failed.held.remove(download);
+                download.holders.remove(failed);
+                if (download.holders.isEmpty()) {
+                    downloads.remove(iv);
+                    unavailable.add(iv);
+                    continue;
+                }
+                unassign(download);
+            }
+            candidates.add(download);
+        }
+        schedule(candidates);
+        return unavailable;
+    }
+
+    synchronized Property getStatus() {
+        int inFlight = 0;
+        Property[] peerProperties = new Property[peers.size()];
+        int i = 0;
+        for (Peer peer : peers.values()) {
+            inFlight += peer.inFlight.size();
+            peerProperties[i++] = new Property(peer.connection.getNode().toString(), null,
+                new Property("inFlight", peer.inFlight.size()),
+                new Property("available", peer.held.size()),
+                new Property("latencyMillis", peer.latencyMillis)
+            );
+        }
+        return new Property("downloads", null,
+            new Property("missing", downloads.size()),
+            new Property("inFlight", inFlight),
+            new Property("peers", null, peerProperties)
+        );
+    }
+
+    private Peer getPeer(ConnectionInfo connection) {
+        Peer peer = peers.get(connection);
+        if (peer == null) {
+            peer = new Peer(connection);
+            peers.put(connection, peer);
+        }
+        return peer;
+    }
+
+    /**
+     * Assigns the unassigned downloads, rarest first, to the least loaded peer that announced them.
+     */
+    private void schedule(List<Download> candidates) {
+        Collections.sort(candidates, new Comparator<Download>() {
+            @Override
+            public int compare(Download a, Download b) {
+                return Integer.compare(a.holders.size(), b.holders.size());
+            }
+        });
+        Map<Peer, List<InventoryVector>> requests = new HashMap<>();
+        for (Download download : candidates) {
+            if (download.assignee != null) {
+                continue;
+            }
+            Peer best = null;
+            for (Peer peer : download.holders) {
+                if (peer.inFlight.size() < MAX_IN_FLIGHT && (best == null || peer.isLessLoadedThan(best))) {
+                    best = peer;
+                }
+            }
+            if (best != null) {
+                assign(download, best, requests);
+            }
+        }
+        send(requests);
+    }
+
+    /**
+     * Fills up the peer with objects only it or busier peers could deliver.
+     */
+    private void refill(Peer peer) {
+        Map<Peer, List<InventoryVector>> requests = new HashMap<>();
+        while (peer.inFlight.size() < MAX_IN_FLIGHT && !peer.unassigned.isEmpty()) {
+            assign(peer.unassigned.iterator().next(), peer, requests);
+        }
+        send(requests);
+    }
+
+    private void assign(Download download, Peer peer, Map<Peer, List<InventoryVector>> requests) {
+        download.assignee = peer;
+        download.requestTime = System.currentTimeMillis();
+        peer.inFlight.add(download);
+        for (Peer holder : download.holders) {
+            holder.unassigned.remove(download);
+        }
+        List<InventoryVector> ivs = requests.get(peer);
+        if (ivs == null) {
+            ivs = new ArrayList<>();
+            requests.put(peer, ivs);
+        }
+        ivs.add(download.iv);
+    }
+
+    private static void unassign(Download download) {
+        download.assignee = null;
+        for (Peer holder : download.holders) {
+            holder.unassigned.add(download);
+        }
+    }
+
+    private static void send(Map<Peer, List<InventoryVector>> requests) {
+        for (Map.Entry<Peer, List<InventoryVector>> e : requests.entrySet()) {
+            List<InventoryVector> ivs = e.getValue();
+            for (int i = 0; i < ivs.size(); i += GetData.MAX_INVENTORY_SIZE) {
+                List<InventoryVector> chunk = ivs.subList(i, Math.min(ivs.size(), i + GetData.MAX_INVENTORY_SIZE));
+                e.getKey().connection.send(new GetData.Builder().inventory(new ArrayList<>(chunk)).build());
+            }
+        }
+    }
+
+    private static class Download {
+        private final InventoryVector iv;
+        private final Set<Peer> holders = new LinkedHashSet<>(4);
+        private Peer assignee;
+        private long requestTime;
+
+        private Download(InventoryVector iv) {
+            this.iv = iv;
+        }
+    }
+
+    private static class Peer {
+        private final ConnectionInfo connection;
+        private final Set<Download> held = new LinkedHashSet<>();
+        /**
+         * The downloads from {@link #held} that aren't requested from any peer, in the order they were announced.
+         */
+        private final Set<Download> unassigned = new LinkedHashSet<>();
+        private final Set<Download> inFlight = new HashSet<>();
+        /**
+         * Exponential moving average of the time between request and response, or 0 if unknown.
+         */
+        private long latencyMillis;
+
+        private Peer(ConnectionInfo connection) {
+            this.connection = connection;
+        }
+
+        private void recordLatency(long millis) {
+            latencyMillis = latencyMillis == 0 ? millis : (7 * latencyMillis + millis) / 8;
+        }
+
+        private boolean isLessLoadedThan(Peer other) {
+            int diff = inFlight.size() - other.inFlight.size();
+            return diff < 0 || diff == 0 && latencyMillis < other.latencyMillis;
+        }
+    }
+}
@@ -18,7 +18,6 @@ package ch.dissem.bitmessage.networking.nio;
 
 import ch.dissem.bitmessage.InternalContext;
 import ch.dissem.bitmessage.entity.CustomMessage;
-import ch.dissem.bitmessage.entity.GetData;
 import ch.dissem.bitmessage.entity.NetworkMessage;
 import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
 import ch.dissem.bitmessage.entity.valueobject.NetworkAddress;
@@ -39,6 +38,7 @@ import java.nio.channels.*;
 import java.util.*;
 import java.util.concurrent.*;
 
+import static ch.dissem.bitmessage.factory.BufferPool.bufferPool;
 import static ch.dissem.bitmessage.networking.AbstractConnection.Mode.*;
 import static ch.dissem.bitmessage.networking.AbstractConnection.State.ACTIVE;
 import static ch.dissem.bitmessage.networking.AbstractConnection.State.DISCONNECTED;
@@ -48,12 +48,19 @@ import static ch.dissem.bitmessage.utils.ThreadFactoryBuilder.pool;
 import static java.nio.channels.SelectionKey.*;
 
 /**
- * Network handler using java.nio, resulting in less threads.
+ * Network handler using java.nio, resulting in less threads. Connections are distributed over a configurable number
+ * of selector threads (see {@link ch.dissem.bitmessage.BitmessageContext.Builder#selectorThreads(int)}).
  */
 public class NioNetworkHandler implements NetworkHandler, InternalContext.ContextHolder {
     private static final Logger LOG = LoggerFactory.getLogger(NioNetworkHandler.class);
     private static final long REQUESTED_OBJECTS_MAX_TIME = 2 * 60_000; // 2 minutes
     private static final Long DELAYED = Long.MIN_VALUE;
+    private static final long OBJECT_CACHE_SIZE = 16 * 1024 * 1024;
+    private static final Runnable NO_OP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
 
     private final ExecutorService threadPool = Executors.newCachedThreadPool(
         pool("network")
@@ -62,7 +69,10 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
             .build());
 
     private InternalContext ctx;
-    private Selector selector;
+    private SelectorWorker[] workers;
+    private ObjectPipeline pipeline;
+    private DownloadScheduler scheduler;
+    private ObjectCache objectCache;
     private ServerSocketChannel serverChannel;
     private Queue<NetworkAddress> connectionQueue = new ConcurrentLinkedQueue<>();
     private Map<ConnectionInfo, SelectionKey> connections = new ConcurrentHashMap<>();
@@ -75,17 +85,24 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
         return threadPool.submit(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
+                Map<InventoryVector, Long> requested = new ConcurrentHashMap<>();
+                ObjectPipeline syncPipeline = new ObjectPipeline(ctx, requested, NO_OP);
                 try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(server, port))) {
                     channel.configureBlocking(false);
                     ConnectionInfo connection = new ConnectionInfo(ctx, SYNC,
                         new NetworkAddress.Builder().ip(server).port(port).stream(1).build(),
-                        new HashMap<InventoryVector, Long>(), timeoutInSeconds);
+                        requested, timeoutInSeconds, syncPipeline, null, null);
                     while (channel.isConnected() && !connection.isSyncFinished()) {
                         write(channel, connection);
-                        read(channel, connection);
+                        if (!syncPipeline.isSaturated()) {
+                            read(channel, connection);
+                        }
                         Thread.sleep(10);
                     }
+                    syncPipeline.awaitIdle();
                     LOG.info("Synchronization finished");
+                } finally {
+                    syncPipeline.shutdown();
                 }
                 return null;
             }
@@ -138,21 +155,40 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
 
     @Override
     public void start() {
-        if (selector != null && selector.isOpen()) {
+        if (workers != null && workers[0].selector.isOpen()) {
             throw new IllegalStateException("Network already running - you need to stop first.");
         }
+        workers = new SelectorWorker[Math.max(1, ctx.getSelectorThreads())];
         try {
-            selector = Selector.open();
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new SelectorWorker(Selector.open());
+            }
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.socket().bind(new InetSocketAddress(ctx.getPort()));
+            serverChannel.register(workers[0].selector, OP_ACCEPT, null);
         } catch (IOException e) {
             throw new ApplicationException(e);
         }
         requestedObjects.clear();
+        scheduler = new DownloadScheduler(REQUESTED_OBJECTS_MAX_TIME);
+        objectCache = new ObjectCache(OBJECT_CACHE_SIZE);
+        pipeline = new ObjectPipeline(ctx, requestedObjects, new Runnable() {
+            @Override
+            public void run() {
+                // reading was suspended, so we need to make sure interest ops are updated
+                for (SelectorWorker worker : workers) {
+                    worker.selector.wakeup();
+                }
+            }
+        });
 
         starter = thread("connection manager", new Runnable() {
             @Override
             public void run() {
-                while (selector.isOpen()) {
-                    int missing = NETWORK_MAGIC_NUMBER;
+                while (workers[0].selector.isOpen()) {
+                    // connections waiting to be registered with their selector are about to be established
+                    int missing = NETWORK_MAGIC_NUMBER - pendingConnections().size();
                     for (ConnectionInfo connectionInfo : connections.keySet()) {
                         if (connectionInfo.getState() == ACTIVE) {
                             missing--;
@@ -213,143 +249,28 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
             }
         });
 
-        thread("selector worker", new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    serverChannel = ServerSocketChannel.open();
-                    serverChannel.configureBlocking(false);
-                    serverChannel.socket().bind(new InetSocketAddress(ctx.getPort()));
-                    serverChannel.register(selector, OP_ACCEPT, null);
-
-                    while (selector.isOpen()) {
-                        selector.select(1000);
-                        Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
-                        while (keyIterator.hasNext()) {
-                            SelectionKey key = keyIterator.next();
-                            keyIterator.remove();
-                            if (key.attachment() == null) {
-                                try {
-                                    if (key.isAcceptable()) {
-                                        // handle accept
-                                        try {
-                                            SocketChannel accepted = ((ServerSocketChannel) key.channel()).accept();
-                                            accepted.configureBlocking(false);
-                                            ConnectionInfo connection = new ConnectionInfo(ctx, SERVER,
-                                                new NetworkAddress.Builder()
-                                                    .ip(accepted.socket().getInetAddress())
-                                                    .port(accepted.socket().getPort())
-                                                    .stream(1)
-                                                    .build(),
-                                                requestedObjects, 0
-                                            );
-                                            connections.put(
-                                                connection,
-                                                accepted.register(selector, OP_READ | OP_WRITE, connection)
-                                            );
-                                        } catch (AsynchronousCloseException e) {
-                                            LOG.trace(e.getMessage());
-                                        } catch (IOException e) {
-                                            LOG.error(e.getMessage(), e);
-                                        }
-                                    }
-                                } catch (CancelledKeyException e) {
-                                    LOG.error(e.getMessage(), e);
-                                }
-                            } else {
-                                // handle read/write
-                                SocketChannel channel = (SocketChannel) key.channel();
-                                ConnectionInfo connection = (ConnectionInfo) key.attachment();
-                                try {
-                                    if (key.isConnectable()) {
-                                        if (!channel.finishConnect()) {
-                                            continue;
-                                        }
-                                    }
-                                    if (key.isWritable()) {
-                                        write(channel, connection);
-                                    }
-                                    if (key.isReadable()) {
-                                        read(channel, connection);
-                                    }
-                                    if (connection.getState() == DISCONNECTED) {
-                                        key.interestOps(0);
-                                        channel.close();
-                                    } else if (connection.isWritePending()) {
-                                        key.interestOps(OP_READ | OP_WRITE);
-                                    } else {
-                                        key.interestOps(OP_READ);
-                                    }
-                                } catch (CancelledKeyException | NodeException | IOException e) {
-                                    connection.disconnect();
-                                }
-                            }
-                        }
-                        // set interest ops
-                        for (Map.Entry<ConnectionInfo, SelectionKey> e : connections.entrySet()) {
-                            if (e.getValue().isValid()
-                                && (e.getValue().interestOps() & OP_WRITE) == 0
-                                && (e.getValue().interestOps() & OP_CONNECT) == 0
-                                && !e.getKey().getSendingQueue().isEmpty()) {
-                                e.getValue().interestOps(OP_READ | OP_WRITE);
-                            }
-                        }
-                        // start new connections
-                        if (!connectionQueue.isEmpty()) {
-                            NetworkAddress address = connectionQueue.poll();
-                            try {
-                                SocketChannel channel = SocketChannel.open();
-                                channel.configureBlocking(false);
-                                channel.connect(new InetSocketAddress(address.toInetAddress(), address.getPort()));
-                                ConnectionInfo connection = new ConnectionInfo(ctx, CLIENT,
-                                    address,
-                                    requestedObjects, 0
-                                );
-                                connections.put(
-                                    connection,
-                                    channel.register(selector, OP_CONNECT, connection)
-                                );
-                            } catch (NoRouteToHostException ignore) {
-                                // We'll try to connect to many offline nodes, so
-                                // this is expected to happen quite a lot.
-                            } catch (AsynchronousCloseException e) {
-                                // The exception is expected if the network is being
-                                // shut down, as we actually do asynchronously close
-                                // the connections.
-                                if (isRunning()) {
-                                    LOG.error(e.getMessage(), e);
-                                }
-                            } catch (IOException e) {
-                                LOG.error(e.getMessage(), e);
-                            }
-                        }
-                    }
-                    selector.close();
-                } catch (ClosedSelectorException ignore) {
-                } catch (IOException e) {
-                    throw new ApplicationException(e);
-                }
-            }
-        });
+        for (int i = 0; i < workers.length; i++) {
+            thread("selector worker " + i, workers[i]);
+        }
     }
 
     private static void write(SocketChannel channel, ConnectionInfo connection)
         throws IOException {
-        writeBuffer(connection.getOutBuffers(), channel);
+        writeBuffers(channel, connection);
 
         connection.updateWriter();
 
-        writeBuffer(connection.getOutBuffers(), channel);
+        writeBuffers(channel, connection);
         connection.cleanupBuffers();
     }
 
-    private static void writeBuffer(ByteBuffer[] buffers, SocketChannel channel) throws IOException {
-        if (buffers[1] == null) {
-            if (buffers[0].hasRemaining()) {
-                channel.write(buffers[0]);
-            }
-        } else if (buffers[1].hasRemaining() || buffers[0].hasRemaining()) {
-            channel.write(buffers);
+    /**
+     * Writes all pending messages of the connection with one gathering write, as far as the channel takes them.
+     */
+    private static void writeBuffers(SocketChannel channel, ConnectionInfo connection) throws IOException {
+        ByteBuffer[] buffers = connection.getOutBuffers();
+        if (ConnectionInfo.hasRemaining(buffers)) {
+            connection.written(channel.write(buffers));
         }
     }
 
@@ -372,12 +293,21 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
     public void stop() {
         try {
             serverChannel.socket().close();
-            selector.close();
+            // once the selectors are closed, no more pending connections get registered
+            for (SelectorWorker worker : workers) {
+                worker.selector.close();
+            }
+            for (PendingConnection pending : pendingConnections()) {
+                pending.channel.close();
+            }
             for (SelectionKey selectionKey : connections.values()) {
                 selectionKey.channel().close();
             }
         } catch (IOException e) {
             throw new ApplicationException(e);
+        } finally {
+            // the connections are closed first, so our peers don't need to wait for the remaining objects
+            pipeline.shutdown();
         }
     }
 
@@ -401,62 +331,13 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
             requestedObjects.clear();
             return;
         }
-        Iterator<InventoryVector> iterator = inventoryVectors.iterator();
-        if (!iterator.hasNext()) {
+        if (inventoryVectors.isEmpty()) {
             return;
         }
-
-        Map<ConnectionInfo, List<InventoryVector>> distribution = new HashMap<>();
-        for (ConnectionInfo connection : connections.keySet()) {
-            if (connection.getState() == ACTIVE) {
-                distribution.put(connection, new LinkedList<InventoryVector>());
-            }
-        }
-        if (distribution.isEmpty()) {
-            return;
-        }
-        InventoryVector next = iterator.next();
-        ConnectionInfo previous = null;
-        do {
-            for (ConnectionInfo connection : distribution.keySet()) {
-                if (connection == previous || previous == null) {
-                    if (iterator.hasNext()) {
-                        previous = connection;
-                        next = iterator.next();
-                    } else {
-                        break;
-                    }
-                }
-                if (connection.knowsOf(next) && !connection.requested(next)) {
-                    List<InventoryVector> ivs = distribution.get(connection);
-                    if (ivs.size() == GetData.MAX_INVENTORY_SIZE) {
-                        connection.send(new GetData.Builder().inventory(ivs).build());
-                        ivs.clear();
-                    }
-                    ivs.add(next);
-                    iterator.remove();
-
-                    if (iterator.hasNext()) {
-                        next = iterator.next();
-                        previous = connection;
-                    } else {
-                        break;
-                    }
-                }
-            }
-        } while (iterator.hasNext());
-
         // remove objects nobody knows of
-        for (InventoryVector iv : inventoryVectors) {
+        for (InventoryVector iv : scheduler.request(inventoryVectors, connections.keySet())) {
             requestedObjects.remove(iv);
         }
-
-        for (ConnectionInfo connection : distribution.keySet()) {
-            List<InventoryVector> ivs = distribution.get(connection);
-            if (!ivs.isEmpty()) {
-                connection.send(new GetData.Builder().inventory(ivs).build());
-            }
-        }
     }
 
     @Override
@@ -464,8 +345,23 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
         TreeSet<Long> streams = new TreeSet<>();
         TreeMap<Long, Integer> incomingConnections = new TreeMap<>();
         TreeMap<Long, Integer> outgoingConnections = new TreeMap<>();
+        long bufferedBytes = 0;
+        int maxBufferedBytes = 0;
+        long announcementMessages = 0;
+        long announcedObjects = 0;
+        long bytesWritten = 0;
+        long writeCalls = 0;
+        long messagesWritten = 0;
 
         for (ConnectionInfo connection : connections.keySet()) {
+            int buffered = connection.getBufferedBytes();
+            bufferedBytes += buffered;
+            maxBufferedBytes = Math.max(maxBufferedBytes, buffered);
+            announcementMessages += connection.getAnnouncementMessages();
+            announcedObjects += connection.getAnnouncedObjects();
+            bytesWritten += connection.getBytesWritten();
+            writeCalls += connection.getWriteCalls();
+            messagesWritten += connection.getMessagesWritten();
             if (connection.getState() == ACTIVE) {
                 for (long stream : connection.getStreams()) {
                     streams.add(stream);
@@ -492,7 +388,26 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
         return new Property("network", null,
             new Property("connectionManager", isRunning() ? "running" : "stopped"),
             new Property("connections", null, streamProperties),
-            new Property("requestedObjects", requestedObjects.size())
+            new Property("requestedObjects", requestedObjects.size()),
+            scheduler == null ? new Property("downloads", null) : scheduler.getStatus(),
+            objectCache == null ? new Property("objectCache", null) : objectCache.getStatus(),
+            new Property("announcements", null,
+                new Property("invMessages", announcementMessages),
+                new Property("objects", announcedObjects),
+                new Property("averageBatchSize",
+                    announcementMessages == 0 ? 0 : (double) announcedObjects / announcementMessages)
+            ),
+            new Property("outbound", null,
+                new Property("bytes", bytesWritten),
+                new Property("messages", messagesWritten),
+                new Property("writeCalls", writeCalls)
+            ),
+            pipeline == null ? new Property("objectPipeline", null) : pipeline.getStatus(),
+            new Property("connectionBuffers", null,
+                new Property("totalBytes", bufferedBytes),
+                new Property("maxBytesPerConnection", maxBufferedBytes)
+            ),
+            bufferPool.getStatus()
         );
     }
 
@@ -502,16 +417,252 @@ public class NioNetworkHandler implements NetworkHandler, InternalContext.Contex
                 return true;
             }
         }
+        for (PendingConnection pending : pendingConnections()) {
+            if (pending.connection.getNode().equals(address)) {
+                return true;
+            }
+        }
         return false;
     }
 
+    /**
+     * @return connections that were handed to a selector worker but aren't registered yet, so they are not in
+     * {@link #connections}
+     */
+    private List<PendingConnection> pendingConnections() {
+        List<PendingConnection> result = new LinkedList<>();
+        if (workers != null) {
+            for (SelectorWorker worker : workers) {
+                result.addAll(worker.pending);
+            }
+        }
+        return result;
+    }
+
     @Override
     public boolean isRunning() {
-        return selector != null && selector.isOpen() && starter.isAlive();
+        return workers != null && workers[0].selector.isOpen() && starter != null && starter.isAlive();
     }
 
     @Override
     public void setContext(InternalContext context) {
         this.ctx = context;
     }
+
+    /**
+     * As long as the object pipeline is saturated, we stop reading from the network, letting the
+     * TCP flow control slow down our peers.
+     */
+    private int readOps() {
+        return pipeline.isSaturated() ? 0 : OP_READ;
+    }
+
+    /**
+     * Returns the selector worker that currently serves the fewest connections, so new connections are spread
+     * evenly over all selector threads.
+     */
+    private SelectorWorker leastBusyWorker() {
+        SelectorWorker result = workers[0];
+        int min = Integer.MAX_VALUE;
+        for (SelectorWorker worker : workers) {
+            int load = worker.pending.size();
+            for (SelectionKey key : connections.values()) {
+                if (key.selector() == worker.selector) {
+                    load++;
+                }
+            }
+            if (load < min) {
+                min = load;
+                result = worker;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Each selector worker owns its own {@link Selector} and serves all connections registered with it. The server
+     * channel is registered with the first worker, which hands accepted connections over to the least busy worker.
+     */
+    private class SelectorWorker implements Runnable {
+        private final Selector selector;
+        private final Queue<PendingConnection> pending = new ConcurrentLinkedQueue<>();
+
+        private SelectorWorker(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * Channels can't be registered with a selector while another thread is blocked in its select method,
+         * so registration is left to the worker thread itself.
+         */
+        private void register(SocketChannel channel, ConnectionInfo connection, int ops) {
+            pending.offer(new PendingConnection(channel, connection, ops));
+            selector.wakeup();
+        }
+
+        private void registerPending() {
+            PendingConnection p;
+            while ((p = pending.poll()) != null) {
+                try {
+                    connections.put(p.connection, p.channel.register(selector, p.ops, p.connection));
+                } catch (ClosedChannelException | ClosedSelectorException e) {
+                    // the network handler is being stopped, or the channel was closed in the meantime
+                    closeQuietly(p.channel);
+                    p.connection.disconnect();
+                }
+            }
+        }
+
+        /**
+         * Closes connections that were handed to this worker or registered while {@link NioNetworkHandler#stop()} was closing
+         * the selector, so they might have been missed.
+         */
+        private void closeRemaining() {
+            PendingConnection p;
+            while ((p = pending.poll()) != null) {
+                closeQuietly(p.channel);
+            }
+            for (SelectionKey key : connections.values()) {
+                if (key.selector() == selector) {
+                    closeQuietly(key.channel());
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (selector.isOpen()) {
+                    selector.select(1000);
+                    registerPending();
+                    Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+                    while (keyIterator.hasNext()) {
+                        SelectionKey key = keyIterator.next();
+                        keyIterator.remove();
+                        if (key.attachment() == null) {
+                            try {
+                                if (key.isAcceptable()) {
+                                    // handle accept
+                                    try {
+                                        SocketChannel accepted = ((ServerSocketChannel) key.channel()).accept();
+                                        accepted.configureBlocking(false);
+                                        ConnectionInfo connection = new ConnectionInfo(ctx, SERVER,
+                                            new NetworkAddress.Builder()
+                                                .ip(accepted.socket().getInetAddress())
+                                                .port(accepted.socket().getPort())
+                                                .stream(1)
+                                                .build(),
+                                            requestedObjects, 0, pipeline, scheduler, objectCache
+                                        );
+                                        leastBusyWorker().register(accepted, connection, OP_READ | OP_WRITE);
+                                    } catch (AsynchronousCloseException e) {
+                                        LOG.trace(e.getMessage());
+                                    } catch (IOException e) {
+                                        LOG.error(e.getMessage(), e);
+                                    }
+                                }
+                            } catch (CancelledKeyException e) {
+                                LOG.error(e.getMessage(), e);
+                            }
+                        } else {
+                            // handle read/write
+                            SocketChannel channel = (SocketChannel) key.channel();
+                            ConnectionInfo connection = (ConnectionInfo) key.attachment();
+                            try {
+                                if (key.isConnectable()) {
+                                    if (!channel.finishConnect()) {
+                                        continue;
+                                    }
+                                }
+                                if (key.isWritable()) {
+                                    write(channel, connection);
+                                }
+                                if (key.isReadable()) {
+                                    read(channel, connection);
+                                }
+                                if (connection.getState() == DISCONNECTED) {
+                                    key.interestOps(0);
+                                    channel.close();
+                                } else if (connection.isWritePending()) {
+                                    key.interestOps(readOps() | OP_WRITE);
+                                } else {
+                                    key.interestOps(readOps());
+                                }
+                            } catch (CancelledKeyException | NodeException | IOException e) {
+                                connection.disconnect();
+                            }
+                        }
+                    }
+                    // set interest ops
+                    int readOps = readOps();
+                    for (Map.Entry<ConnectionInfo, SelectionKey> e : connections.entrySet()) {
+                        SelectionKey key = e.getValue();
+                        if (key.selector() == selector
+                            && key.isValid()
+                            && (key.interestOps() & OP_CONNECT) == 0) {
+                            e.getKey().updateAnnouncements();
+                            int ops = (key.interestOps() & OP_WRITE) | readOps;
+                            if (!e.getKey().getSendingQueue().isEmpty()) {
+                                ops |= OP_WRITE;
+                            }
+                            if (ops != key.interestOps()) {
+                                key.interestOps(ops);
+                            }
+                        }
+                    }
+                    // start new connections
+                    NetworkAddress address = connectionQueue.poll();
+                    if (address != null) {
+                        try {
+                            SocketChannel channel = SocketChannel.open();
+                            channel.configureBlocking(false);
+                            channel.connect(new InetSocketAddress(address.toInetAddress(), address.getPort()));
+                            ConnectionInfo connection = new ConnectionInfo(ctx, CLIENT,
+                                address,
+                                requestedObjects, 0, pipeline, scheduler, objectCache
+                            );
+                            leastBusyWorker().register(channel, connection, OP_CONNECT);
+                        } catch (NoRouteToHostException ignore) {
+                            // We'll try to connect to many offline nodes, so
+                            // this is expected to happen quite a lot.
+                        } catch (AsynchronousCloseException e) {
+                            // The exception is expected if the network is being
+                            // shut down, as we actually do asynchronously close
+                            // the connections.
+                            if (isRunning()) {
+                                LOG.error(e.getMessage(), e);
+                            }
+                        } catch (IOException e) {
+                            LOG.error(e.getMessage(), e);
+                        }
+                    }
+                }
+                selector.close();
+            } catch (ClosedSelectorException ignore) {
+            } catch (IOException e) {
+                throw new ApplicationException(e);
+            } finally {
+                closeRemaining();
+            }
+        }
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private static class PendingConnection {
+        private final SocketChannel channel;
+        private final ConnectionInfo connection;
+        private final int ops;
+
+        private PendingConnection(SocketChannel channel, ConnectionInfo connection, int ops) {
+            this.channel = channel;
+            this.connection = connection;
+            this.ops = ops;
+        }
+    }
 }
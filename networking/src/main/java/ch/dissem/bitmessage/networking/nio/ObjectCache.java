@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.nio;
+
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.utils.Property;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the most recently requested objects in their serialized form. New objects are usually requested by most
+ * of our peers shortly after we announced them, so only the first request needs to load and encode them.
+ * The cache is limited by the total size of the objects, the least recently used ones are dropped first.
+ */
+class ObjectCache {
+    private final long maxBytes;
+    private final Map<InventoryVector, SerializedObject> objects = new LinkedHashMap<>(256, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+
+    ObjectCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized SerializedObject get(InventoryVector iv) {
+        SerializedObject result = objects.get(iv);
+        if (result == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return result;
+    }
+
+    synchronized void put(InventoryVector iv, SerializedObject object) {
+        if (object.size() > maxBytes) {
+            return;
+        }
+        SerializedObject previous = objects.put(iv, object);
+        size += object.size();
+        if (previous != null) {
+            size -= previous.size();
+        }
+        Iterator<SerializedObject> iterator = objects.values().iterator();
+        while (size > maxBytes) {
+            size -= iterator.next().size();
+            iterator.remove();
+        }
+    }
+
+    synchronized Property getStatus() {
+        return new Property("objectCache", null,
+            new Property("objects", objects.size()),
+            new Property("bytes", size),
+            new Property("hits", hits),
+            new Property("misses", misses)
+        );
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2016 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.nio;
+
+import ch.dissem.bitmessage.InternalContext;
+import ch.dissem.bitmessage.entity.ObjectMessage;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.exception.InsufficientProofOfWorkException;
+import ch.dissem.bitmessage.utils.Property;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static ch.dissem.bitmessage.InternalContext.NETWORK_EXTRA_BYTES;
+import static ch.dissem.bitmessage.InternalContext.NETWORK_NONCE_TRIALS_PER_BYTE;
+import static ch.dissem.bitmessage.utils.Singleton.cryptography;
+import static ch.dissem.bitmessage.utils.ThreadFactoryBuilder.pool;
+
+/**
+ * Processes received objects off the selector threads. Objects pass through the stages 'proof of work',
+ * 'store' and 'listener', each having its own bounded queue and worker threads.
+ * <p>
+ * If too many objects are in the pipeline, it is considered saturated and the network handler should stop reading
+ * from its connections until enough objects are processed.
+ * </p>
+ */
+class ObjectPipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(ObjectPipeline.class);
+    private static final int CAPACITY = 1000;
+    private static final int RESUME_THRESHOLD = CAPACITY / 2;
+    private static final int POW_BATCH_SIZE = 256;
+    /**
+     * How long shutting down waits for the objects in the pipeline to be processed. It's short, as objects still
+     * in the pipeline will simply be received again.
+     */
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 5_000;
+
+    private final InternalContext ctx;
+    private final Map<InventoryVector, Long> commonRequestedObjects;
+    private final Runnable onResume;
+
+    private final Set<InventoryVector> processing =
+        Collections.newSetFromMap(new ConcurrentHashMap<InventoryVector, Boolean>(CAPACITY));
+    private int size;
+    private volatile boolean saturated;
+
+    private final Stage proofOfWorkStage;
+    private final Stage storeStage;
+    private final Stage listenerStage;
+
+    /**
+     * @param ctx                    the context
+     * @param commonRequestedObjects received objects are removed from this map after they were processed
+     * @param onResume               called when the pipeline isn't saturated anymore
+     */
+    ObjectPipeline(InternalContext ctx, Map<InventoryVector, Long> commonRequestedObjects, Runnable onResume) {
+        this.ctx = ctx;
+        this.commonRequestedObjects = commonRequestedObjects;
+        this.onResume = onResume;
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        listenerStage = new SingleObjectStage("listener", cores) {
+            @Override
+            void process(ObjectMessage object) {
+                try {
+                    ObjectPipeline.this.ctx.getNetworkListener().receive(object);
+                } catch (IOException e) {
+                    LOG.error("Stream " + object.getStream() + ", object type " + object.getType() + ": "
+                        + e.getMessage(), e);
+                }
+                done(object);
+            }
+        };
+        storeStage = new SingleObjectStage("store", 1) {
+            @Override
+            void process(ObjectMessage object) throws InterruptedException {
+                if (ObjectPipeline.this.ctx.getInventory().contains(object)) {
+                    LOG.trace("Received object " + object.getInventoryVector() + " - already in inventory");
+                    done(object);
+                    return;
+                }
+                ObjectPipeline.this.ctx.getInventory().storeObject(object);
+                // offer object to some random nodes so it gets distributed throughout the network:
+                ObjectPipeline.this.ctx.getNetworkHandler().offer(object.getInventoryVector());
+                listenerStage.put(object);
+            }
+        };
+        // proof of work is checked in batches, the cryptography implementation uses all cores to do so
+        proofOfWorkStage = new Stage("pow", 1, POW_BATCH_SIZE) {
+            @Override
+            void process(List<ObjectMessage> objects) throws InterruptedException {
+                boolean[] valid;
+                try {
+                    valid = cryptography().checkProofOfWork(objects,
+                        NETWORK_NONCE_TRIALS_PER_BYTE, NETWORK_EXTRA_BYTES);
+                } catch (RuntimeException e) {
+                    // a single malformed object must not discard the whole batch
+                    LOG.warn("Batch proof of work check failed, checking objects one by one", e);
+                    valid = checkProofOfWork(objects);
+                }
+                for (int i = 0; i < valid.length; i++) {
+                    ObjectMessage object = objects.get(i);
+                    if (valid[i]) {
+                        storeStage.put(object);
+                    } else {
+                        LOG.warn("Insufficient proof of work for object " + object.getInventoryVector());
+                        done(object);
+                    }
+                }
+            }
+        };
+    }
+
+    private static boolean[] checkProofOfWork(List<ObjectMessage> objects) {
+        boolean[] result = new boolean[objects.size()];
+        for (int i = 0; i < result.length; i++) {
+            ObjectMessage object = objects.get(i);
+            try {
+                cryptography().checkProofOfWork(object, NETWORK_NONCE_TRIALS_PER_BYTE, NETWORK_EXTRA_BYTES);
+                result[i] = true;
+            } catch (InsufficientProofOfWorkException e) {
+                result[i] = false;
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Couldn't check proof of work for object " + object.getInventoryVector() + ": "
+                    + e.getMessage(), e);
+                result[i] = false;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds a received object to the pipeline. Objects that are already being processed are ignored.
+     * This method only blocks if the network handler keeps reading despite the pipeline being saturated.
+     */
+    void offer(ObjectMessage object) {
+        if (!processing.add(object.getInventoryVector())) {
+            LOG.trace("Received object " + object.getInventoryVector() + " - already being processed");
+            return;
+        }
+        synchronized (this) {
+            if (++size >= CAPACITY) {
+                saturated = true;
+            }
+        }
+        try {
+            proofOfWorkStage.put(object);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            done(object);
+        }
+    }
+
+    /**
+     * @return true if the network handler should stop reading new messages for now.
+     */
+    boolean isSaturated() {
+        return saturated;
+    }
+
+    /**
+     * Blocks until all objects in the pipeline are processed.
+     */
+    synchronized void awaitIdle() throws InterruptedException {
+        while (size > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * @return true if all objects were processed, false if the timeout elapsed first
+     */
+    private synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (size > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    private void done(ObjectMessage object) {
+        InventoryVector iv = object.getInventoryVector();
+        processing.remove(iv);
+        if (commonRequestedObjects.remove(iv) == null) {
+            LOG.debug("Received object that wasn't requested.");
+        }
+        boolean resume = false;
+        synchronized (this) {
+            size--;
+            if (size <= RESUME_THRESHOLD && saturated) {
+                saturated = false;
+                resume = true;
+            }
+            if (size == 0) {
+                notifyAll();
+            }
+        }
+        if (resume) {
+            onResume.run();
+        }
+    }
+
+    /**
+     * Processes the objects that are still in the pipeline and stops the worker threads. No objects may be offered
+     * after calling this method.
+     */
+    void shutdown() {
+        try {
+            if (!awaitIdle(SHUTDOWN_TIMEOUT_MILLIS)) {
+                LOG.warn("Shutting down with unprocessed objects in the pipeline");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        proofOfWorkStage.shutdown();
+        storeStage.shutdown();
+        listenerStage.shutdown();
+    }
+
+    Property getStatus() {
+        return new Property("objectPipeline", saturated ? "saturated" : null,
+            new Property("pow", proofOfWorkStage.queue.size()),
+            new Property("store", storeStage.queue.size()),
+            new Property("listener", listenerStage.queue.size())
+        );
+    }
+
+    private abstract class Stage implements Runnable {
+        private final BlockingQueue<ObjectMessage> queue = new ArrayBlockingQueue<>(CAPACITY);
+        private final ExecutorService workers;
+        private final int batchSize;
+
+        Stage(String name, int threads, int batchSize) {
+            this.batchSize = batchSize;
+            workers = Executors.newFixedThreadPool(threads, pool("object-" + name).lowPrio().daemon().build());
+            for (int i = 0; i < threads; i++) {
+                workers.execute(this);
+            }
+        }
+
+        void put(ObjectMessage object) throws InterruptedException {
+            queue.put(object);
+        }
+
+        /**
+         * Processes a batch of at least one and at most <em>batchSize</em> objects.
+         */
+        abstract void process(List<ObjectMessage> objects) throws InterruptedException;
+
+        @Override
+        public void run() {
+            List<ObjectMessage> batch = new ArrayList<>(batchSize);
+            try {
+                while (!Thread.interrupted()) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, batchSize - 1);
+                    try {
+                        process(batch);
+                    } catch (RuntimeException e) {
+                        LOG.error(e.getMessage(), e);
+                        for (ObjectMessage object : batch) {
+                            done(object);
+                        }
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException ignore) {
+                // the pipeline is being shut down
+            }
+        }
+
+        void shutdown() {
+            // the workers are waiting for new objects
+            workers.shutdownNow();
+            try {
+                workers.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private abstract class SingleObjectStage extends Stage {
+        SingleObjectStage(String name, int threads) {
+            super(name, threads, 1);
+        }
+
+        @Override
+        void process(List<ObjectMessage> objects) throws InterruptedException {
+            process(objects.get(0));
+        }
+
+        abstract void process(ObjectMessage object) throws InterruptedException;
+    }
+}
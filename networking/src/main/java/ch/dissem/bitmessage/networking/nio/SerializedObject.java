@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.nio;
+
+import ch.dissem.bitmessage.entity.MessagePayload;
+import ch.dissem.bitmessage.entity.NetworkMessage;
+import ch.dissem.bitmessage.entity.ObjectMessage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static ch.dissem.bitmessage.ports.NetworkHandler.HEADER_SIZE;
+
+/**
+ * An object message that is already serialized, including its header with the checksum, so it can be sent to
+ * any number of nodes without encoding and hashing it again.
+ */
+class SerializedObject implements MessagePayload {
+    private static final long serialVersionUID = -3442306541617226415L;
+
+    private final byte[] message;
+
+    SerializedObject(ObjectMessage object) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        ByteBuffer payload = new NetworkMessage(object).writeHeaderAndGetPayloadBuffer(header);
+        message = new byte[HEADER_SIZE + payload.remaining()];
+        System.arraycopy(header.array(), 0, message, 0, HEADER_SIZE);
+        payload.get(message, HEADER_SIZE, payload.remaining());
+    }
+
+    /**
+     * @return a new buffer containing the whole network message, header and payload
+     */
+    ByteBuffer getMessageBuffer() {
+        return ByteBuffer.wrap(message).asReadOnlyBuffer();
+    }
+
+    int size() {
+        return message.length;
+    }
+
+    @Override
+    public Command getCommand() {
+        return Command.OBJECT;
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException {
+        out.write(message, HEADER_SIZE, message.length - HEADER_SIZE);
+    }
+
+    @Override
+    public void write(ByteBuffer buffer) {
+        buffer.put(message, HEADER_SIZE, message.length - HEADER_SIZE);
+    }
+}
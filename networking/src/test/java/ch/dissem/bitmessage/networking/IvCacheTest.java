@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking;
+
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IvCacheTest {
+    private final Random random = new Random(42);
+
+    @Test
+    public void ensureExactCacheContainsOnlyAddedEntries() {
+        IvCache cache = new IvCache();
+        InventoryVector iv = randomIV();
+        cache.add(iv);
+        cache.addAll(Arrays.asList(randomIV(), randomIV()));
+        assertTrue(cache.contains(iv));
+        assertTrue(cache.contains(new InventoryVector(iv.getHash())));
+        for (int i = 0; i < 10_000; i++) {
+            assertFalse(cache.contains(randomIV()));
+        }
+    }
+
+    @Test
+    public void ensureCompactCacheHasNoFalseNegativesAndFewFalsePositives() {
+        int expected = 10_000;
+        IvCache cache = new IvCache(expected);
+        InventoryVector[] added = new InventoryVector[expected];
+        for (int i = 0; i < expected; i++) {
+            added[i] = randomIV();
+            cache.add(added[i]);
+        }
+        for (InventoryVector iv : added) {
+            assertTrue(cache.contains(iv));
+        }
+        int falsePositives = 0;
+        int tests = 100_000;
+        for (int i = 0; i < tests; i++) {
+            if (cache.contains(randomIV())) {
+                falsePositives++;
+            }
+        }
+        // only one generation is filled, it's sized for a sixth of the overall 1%
+        double rate = (double) falsePositives / tests;
+        assertTrue(rate < 0.003);
+    }
+
+    @Test
+    public void ensureBloomFilterIsSizedForRequestedFalsePositiveRate() {
+        IvCache.BloomFilter filter = new IvCache.BloomFilter(1000, 0.001);
+        for (int i = 0; i < 1000; i++) {
+            filter.add(randomIV());
+        }
+        int falsePositives = 0;
+        int tests = 100_000;
+        for (int i = 0; i < tests; i++) {
+            if (filter.contains(randomIV())) {
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / tests;
+        assertTrue(rate < 0.003);
+    }
+
+    private InventoryVector randomIV() {
+        byte[] hash = new byte[32];
+        random.nextBytes(hash);
+        return new InventoryVector(hash);
+    }
+}
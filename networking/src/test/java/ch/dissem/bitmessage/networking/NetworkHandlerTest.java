@@ -95,6 +95,7 @@ public class NetworkHandlerTest {
             .messageRepo(mock(MessageRepository.class))
             .powRepo(mock(ProofOfWorkRepository.class))
             .port(peerAddress.getPort())
+            .selectorThreads(2)
             .nodeRegistry(new TestNodeRegistry())
             .networkHandler(peerNetworkHandler)
             .cryptography(new BouncyCryptography())
@@ -130,6 +131,7 @@ public class NetworkHandlerTest {
             .messageRepo(mock(MessageRepository.class))
             .powRepo(mock(ProofOfWorkRepository.class))
             .port(6002)
+            .selectorThreads(2)
             .nodeRegistry(new TestNodeRegistry(peerAddress))
             .networkHandler(nodeNetworkHandler)
             .cryptography(new BouncyCryptography())
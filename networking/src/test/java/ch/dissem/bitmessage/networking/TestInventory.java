@@ -50,6 +50,18 @@ public class TestInventory implements Inventory {
         return inventory.get(vector);
     }
 
+    @Override
+    public List<ObjectMessage> getObjects(List<InventoryVector> vectors) {
+        List<ObjectMessage> result = new ArrayList<>(vectors.size());
+        for (InventoryVector vector : vectors) {
+            ObjectMessage object = inventory.get(vector);
+            if (object != null) {
+                result.add(object);
+            }
+        }
+        return result;
+    }
+
     @Override
     public List<ObjectMessage> getObjects(long stream, long version, ObjectType... types) {
         return new ArrayList<>(inventory.values());
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.nio;
+
+import ch.dissem.bitmessage.InternalContext;
+import ch.dissem.bitmessage.entity.CustomMessage;
+import ch.dissem.bitmessage.entity.Inv;
+import ch.dissem.bitmessage.entity.MessagePayload;
+import ch.dissem.bitmessage.entity.NetworkMessage;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.entity.valueobject.NetworkAddress;
+import ch.dissem.bitmessage.ports.CustomCommandHandler;
+import ch.dissem.bitmessage.ports.NetworkHandler;
+import ch.dissem.bitmessage.utils.TestBase;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static ch.dissem.bitmessage.networking.AbstractConnection.Mode.SERVER;
+import static ch.dissem.bitmessage.networking.AbstractConnection.State.DISCONNECTED;
+import static ch.dissem.bitmessage.ports.NetworkHandler.HEADER_SIZE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConnectionInfoTest extends TestBase {
+    private InternalContext ctx;
+    private ConnectionInfo connection;
+
+    @Before
+    public void setUp() {
+        ctx = mock(InternalContext.class);
+        when(ctx.getNetworkHandler()).thenReturn(mock(NetworkHandler.class));
+        when(ctx.getCustomCommandHandler()).thenReturn(mock(CustomCommandHandler.class));
+        connection = connection();
+    }
+
+    private ConnectionInfo connection() {
+        return new ConnectionInfo(ctx, SERVER,
+            new NetworkAddress.Builder().ipv4(127, 0, 0, 1).port(8444).build(),
+            new ConcurrentHashMap<InventoryVector, Long>(), 0);
+    }
+
+    @Test
+    public void ensureDisconnectWhileReadingIsHandled() throws Exception {
+        when(ctx.getCustomCommandHandler().handle(any(CustomMessage.class))).thenReturn(null);
+
+        receive(new CustomMessage("test", new byte[]{0}));
+
+        assertEquals(DISCONNECTED, connection.getState());
+    }
+
+    @Test
+    public void ensureObjectsAreAnnouncedImmediatelyWithoutTrickleInterval() {
+        InventoryVector iv = iv(1);
+        connection.offer(iv);
+
+        assertEquals(Collections.singletonList(iv), announced(connection));
+        assertEquals(1, connection.getAnnouncementMessages());
+    }
+
+    @Test(timeout = 10_000)
+    public void ensureObjectsAreAnnouncedInBatches() throws Exception {
+        when(ctx.getTrickleInterval()).thenReturn(1000L);
+        connection = connection();
+        connection.offer(iv(1));
+        connection.offer(iv(2));
+        connection.offer(iv(3));
+        connection.updateAnnouncements();
+        // the first batch is due after 0.5 to 1.5 seconds
+        assertTrue(connection.getSendingQueue().isEmpty());
+
+        while (connection.getSendingQueue().isEmpty()) {
+            Thread.sleep(50);
+            connection.updateAnnouncements();
+        }
+
+        assertEquals(Arrays.asList(iv(1), iv(2), iv(3)), announced(connection));
+        assertEquals(1, connection.getAnnouncementMessages());
+        assertEquals(3, connection.getAnnouncedObjects());
+    }
+
+    @Test
+    public void ensureFullBatchIsAnnouncedImmediately() {
+        when(ctx.getTrickleInterval()).thenReturn(60_000L);
+        connection = connection();
+        for (int i = 0; i < Inv.MAX_INVENTORY_SIZE - 1; i++) {
+            connection.offer(iv(i));
+        }
+        assertTrue(connection.getSendingQueue().isEmpty());
+
+        connection.offer(iv(Inv.MAX_INVENTORY_SIZE - 1));
+        assertEquals(Inv.MAX_INVENTORY_SIZE, announced(connection).size());
+
+        // the next batch starts out empty
+        connection.offer(iv(Inv.MAX_INVENTORY_SIZE));
+        assertTrue(connection.getSendingQueue().isEmpty());
+    }
+
+    @Test
+    public void ensureQueuedMessagesAreWrittenInOneBatch() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++) {
+            CustomMessage message = new CustomMessage("test", new byte[]{(byte) i});
+            new NetworkMessage(message).write(expected);
+            connection.getSendingQueue().offer(message);
+        }
+
+        connection.updateWriter();
+
+        assertEquals(6, connection.getOutBuffers().length);
+        assertTrue(connection.getSendingQueue().isEmpty());
+        assertEquals(3, connection.getMessagesWritten());
+        assertArrayEquals(expected.toByteArray(), write(connection.getOutBuffers(), Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void ensureBatchIsLimitedByNumberOfMessages() {
+        for (int i = 0; i < ConnectionInfo.MAX_BATCH_MESSAGES + 10; i++) {
+            connection.getSendingQueue().offer(new CustomMessage("test", new byte[1]));
+        }
+
+        connection.updateWriter();
+
+        assertEquals(2 * ConnectionInfo.MAX_BATCH_MESSAGES, connection.getOutBuffers().length);
+        assertEquals(10, connection.getSendingQueue().size());
+    }
+
+    @Test
+    public void ensureBatchIsLimitedBySize() {
+        int messageSize = ConnectionInfo.MAX_BATCH_BYTES / 3 + 1;
+        for (int i = 0; i < 5; i++) {
+            connection.getSendingQueue().offer(new CustomMessage("test", new byte[messageSize]));
+        }
+
+        connection.updateWriter();
+
+        // the batch is closed as soon as it exceeds the limit
+        assertEquals(6, connection.getOutBuffers().length);
+        assertEquals(2, connection.getSendingQueue().size());
+    }
+
+    @Test
+    public void ensurePartiallyWrittenBatchIsCompletedFirst() {
+        connection.getSendingQueue().offer(new CustomMessage("test", new byte[100]));
+        connection.getSendingQueue().offer(new CustomMessage("test", new byte[100]));
+        connection.updateWriter();
+        ByteBuffer[] batch = connection.getOutBuffers();
+        connection.written(write(batch, 150).length);
+
+        connection.getSendingQueue().offer(new CustomMessage("test", new byte[100]));
+        connection.updateWriter();
+        assertSame(batch, connection.getOutBuffers());
+        assertEquals(1, connection.getSendingQueue().size());
+
+        connection.written(write(batch, Integer.MAX_VALUE).length);
+        connection.updateWriter();
+        assertEquals(2, connection.getOutBuffers().length);
+        assertTrue(connection.getSendingQueue().isEmpty());
+        assertEquals(3, connection.getMessagesWritten());
+        assertEquals(2, connection.getWriteCalls());
+        assertEquals(2 * (HEADER_SIZE + 100 + 5), connection.getBytesWritten());
+    }
+
+    /**
+     * Takes up to <em>maxBytes</em> from the buffers, like a gathering write would.
+     */
+    private static byte[] write(ByteBuffer[] buffers, int maxBytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining() && out.size() < maxBytes) {
+                out.write(buffer.get());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static List<InventoryVector> announced(ConnectionInfo connection) {
+        List<InventoryVector> result = new ArrayList<>();
+        MessagePayload payload;
+        while ((payload = connection.getSendingQueue().poll()) != null) {
+            result.addAll(((Inv) payload).getInventory());
+        }
+        return result;
+    }
+
+    private static InventoryVector iv(int i) {
+        byte[] hash = new byte[32];
+        hash[0] = (byte) i;
+        hash[1] = (byte) (i >> 8);
+        hash[2] = (byte) (i >> 16);
+        return new InventoryVector(hash);
+    }
+
+    private void receive(MessagePayload payload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new NetworkMessage(payload).write(out);
+        ByteBuffer data = ByteBuffer.wrap(out.toByteArray());
+        while (data.hasRemaining() && connection.getState() != DISCONNECTED) {
+            ByteBuffer in = connection.getInBuffer();
+            while (in.hasRemaining() && data.hasRemaining()) {
+                in.put(data.get());
+            }
+            connection.updateReader();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.nio;
+
+import ch.dissem.bitmessage.entity.GetData;
+import ch.dissem.bitmessage.entity.MessagePayload;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static ch.dissem.bitmessage.networking.AbstractConnection.State.ACTIVE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class DownloadSchedulerTest {
+    private static final long TIMEOUT = 60_000;
+
+    private final ConnectionInfo peerA = connection();
+    private final ConnectionInfo peerB = connection();
+
+    @Test
+    public void ensureAnnouncedObjectsAreRequested() {
+        DownloadScheduler scheduler = new DownloadScheduler(TIMEOUT);
+        List<InventoryVector> ivs = ivs(0, 3);
+        scheduler.announced(peerA, ivs);
+        // already requested from A
+        scheduler.announced(peerB, ivs);
+
+        assertEquals(Collections.singletonList(ivs), requests(peerA));
+        verify(peerB, never()).send(any(MessagePayload.class));
+    }
+
+    @Test
+    public void ensureObjectsAreRequestedFromLeastLoadedPeer() {
+        DownloadScheduler scheduler = new DownloadScheduler(TIMEOUT);
+        scheduler.announced(peerA, ivs(0, 3));
+        scheduler.announced(peerB, ivs(3, 4));
+        InventoryVector iv = iv(10);
+        when(peerA.knowsOf(iv)).thenReturn(true);
+        when(peerB.knowsOf(iv)).thenReturn(true);
+
+        List<InventoryVector> unavailable = scheduler.request(Collections.singletonList(iv),
+            Arrays.asList(peerA, peerB));
+
+        assertTrue(unavailable.isEmpty());
+        assertEquals(Arrays.asList(ivs(3, 4), Collections.singletonList(iv)), requests(peerB));
+    }
+
+    @Test
+    public void ensureObjectsNoPeerKnowsOfAreReturned() {
+        DownloadScheduler scheduler = new DownloadScheduler(TIMEOUT);
+        InventoryVector iv = iv(10);
+
+        List<InventoryVector> unavailable = scheduler.request(Collections.singletonList(iv),
+            Arrays.asList(peerA, peerB));
+
+        assertEquals(Collections.singletonList(iv), unavailable);
+    }
+
+    @Test
+    public void ensureObjectsAreRequestedFromOtherPeerOnDisconnect() {
+        DownloadScheduler scheduler = new DownloadScheduler(TIMEOUT);
+        scheduler.announced(peerA, ivs(0, 3));
+        scheduler.announced(peerB, ivs(1, 3));
+        scheduler.received(peerA, iv(1));
+
+        scheduler.disconnected(peerA);
+
+        assertEquals(Collections.singletonList(ivs(2, 3)), requests(peerB));
+    }
+
+    @Test
+    public void ensureTimedOutObjectsAreRequestedFromOtherPeer() {
+        DownloadScheduler scheduler = new DownloadScheduler(0);
+        scheduler.announced(peerA, ivs(0, 1));
+        scheduler.announced(peerB, ivs(0, 1));
+
+        List<InventoryVector> unavailable = scheduler.request(ivs(0, 1), Arrays.asList(peerA, peerB));
+
+        assertTrue(unavailable.isEmpty());
+        assertEquals(Collections.singletonList(ivs(0, 1)), requests(peerB));
+        // A failed to deliver, so if B fails as well, nobody else has the object
+        assertEquals(ivs(0, 1), scheduler.request(ivs(0, 1), Arrays.asList(peerA, peerB)));
+    }
+
+    @Test
+    public void ensureRecentlyRequestedObjectsAreNotRequestedAgain() {
+        DownloadScheduler scheduler = new DownloadScheduler(TIMEOUT);
+        scheduler.announced(peerA, ivs(0, 1));
+        scheduler.announced(peerB, ivs(0, 1));
+
+        scheduler.request(ivs(0, 1), Arrays.asList(peerA, peerB));
+
+        assertEquals(1, requests(peerA).size());
+        verify(peerB, never()).send(any(MessagePayload.class));
+    }
+
+    @Test
+    public void ensurePeerIsRefilledWhenHalfOfItsRequestsAreAnswered() {
+        DownloadScheduler scheduler = new DownloadScheduler(TIMEOUT);
+        int total = DownloadScheduler.MAX_IN_FLIGHT + 200;
+        List<InventoryVector> ivs = ivs(0, total);
+        scheduler.announced(peerA, ivs);
+        assertEquals(Collections.singletonList(ivs(0, DownloadScheduler.MAX_IN_FLIGHT)), requests(peerA));
+
+        for (int i = 0; i < DownloadScheduler.MAX_IN_FLIGHT / 2 - 1; i++) {
+            scheduler.received(peerA, ivs.get(i));
+        }
+        assertEquals(1, requests(peerA).size());
+        scheduler.received(peerA, ivs.get(DownloadScheduler.MAX_IN_FLIGHT / 2));
+
+        List<List<InventoryVector>> requests = requests(peerA);
+        assertEquals(2, requests.size());
+        assertEquals(ivs(DownloadScheduler.MAX_IN_FLIGHT, total), requests.get(1));
+    }
+
+    private static ConnectionInfo connection() {
+        ConnectionInfo connection = mock(ConnectionInfo.class);
+        when(connection.getState()).thenReturn(ACTIVE);
+        return connection;
+    }
+
+    private static List<List<InventoryVector>> requests(ConnectionInfo connection) {
+        ArgumentCaptor<MessagePayload> captor = ArgumentCaptor.forClass(MessagePayload.class);
+        verify(connection, atLeast(0)).send(captor.capture());
+        List<List<InventoryVector>> result = new ArrayList<>();
+        for (MessagePayload payload : captor.getAllValues()) {
+            result.add(((GetData) payload).getInventory());
+        }
+        return result;
+    }
+
+    private static List<InventoryVector> ivs(int from, int to) {
+        List<InventoryVector> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            result.add(iv(i));
+        }
+        return result;
+    }
+
+    private static InventoryVector iv(int i) {
+        byte[] hash = new byte[32];
+        hash[0] = (byte) i;
+        hash[1] = (byte) (i >> 8);
+        return new InventoryVector(hash);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.nio;
+
+import ch.dissem.bitmessage.entity.BitmessageAddress;
+import ch.dissem.bitmessage.entity.ObjectMessage;
+import ch.dissem.bitmessage.entity.payload.GetPubkey;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.utils.TestBase;
+import org.junit.Test;
+
+import static ch.dissem.bitmessage.utils.UnixTime.now;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ObjectCacheTest extends TestBase {
+    private int ttl = 300;
+
+    @Test
+    public void ensureLeastRecentlyUsedObjectsAreEvicted() {
+        SerializedObject a = serializedObject();
+        SerializedObject b = serializedObject();
+        SerializedObject c = serializedObject();
+        ObjectCache cache = new ObjectCache(2 * a.size() + a.size() / 2);
+        cache.put(iv(1), a);
+        cache.put(iv(2), b);
+        assertSame(a, cache.get(iv(1)));
+
+        cache.put(iv(3), c);
+
+        assertSame(a, cache.get(iv(1)));
+        assertNull(cache.get(iv(2)));
+        assertSame(c, cache.get(iv(3)));
+        assertEquals(2, cache.getStatus().getProperty("objects").getValue());
+        assertEquals(2L * a.size(), cache.getStatus().getProperty("bytes").getValue());
+        assertEquals(3L, cache.getStatus().getProperty("hits").getValue());
+        assertEquals(1L, cache.getStatus().getProperty("misses").getValue());
+    }
+
+    @Test
+    public void ensureReplacedObjectsAreOnlyCountedOnce() {
+        SerializedObject a = serializedObject();
+        SerializedObject b = serializedObject();
+        ObjectCache cache = new ObjectCache(2 * a.size());
+        cache.put(iv(1), a);
+        cache.put(iv(2), b);
+
+        cache.put(iv(1), b);
+
+        assertSame(b, cache.get(iv(1)));
+        assertSame(b, cache.get(iv(2)));
+        assertEquals(2L * a.size(), cache.getStatus().getProperty("bytes").getValue());
+    }
+
+    @Test
+    public void ensureObjectsLargerThanTheCacheAreIgnored() {
+        SerializedObject a = serializedObject();
+        ObjectCache cache = new ObjectCache(a.size() - 1);
+        cache.put(iv(1), a);
+
+        assertNull(cache.get(iv(1)));
+        assertEquals(0L, cache.getStatus().getProperty("bytes").getValue());
+    }
+
+    private SerializedObject serializedObject() {
+        return new SerializedObject(new ObjectMessage.Builder()
+            .nonce(new byte[8])
+            .expiresTime(now(+ttl++))
+            .stream(1)
+            .payload(new GetPubkey(new BitmessageAddress("BM-2cW7cD5cDQJDNkE7ibmyTxfvGAmnPqa9Vt")))
+            .build());
+    }
+
+    private static InventoryVector iv(int i) {
+        byte[] hash = new byte[32];
+        hash[0] = (byte) i;
+        return new InventoryVector(hash);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.nio;
+
+import ch.dissem.bitmessage.InternalContext;
+import ch.dissem.bitmessage.cryptography.bc.BouncyCryptography;
+import ch.dissem.bitmessage.entity.BitmessageAddress;
+import ch.dissem.bitmessage.entity.ObjectMessage;
+import ch.dissem.bitmessage.entity.payload.GetPubkey;
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import ch.dissem.bitmessage.ports.Cryptography;
+import ch.dissem.bitmessage.ports.Inventory;
+import ch.dissem.bitmessage.ports.NetworkHandler;
+import ch.dissem.bitmessage.utils.Singleton;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static ch.dissem.bitmessage.utils.UnixTime.now;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.*;
+
+public class ObjectPipelineTest {
+    private InternalContext ctx;
+    private Inventory inventory;
+    private Cryptography cryptography;
+
+    @Before
+    public void setUp() {
+        // proof of work isn't what's tested here
+        cryptography = spy(new BouncyCryptography());
+        doAnswer(new Answer<boolean[]>() {
+            @Override
+            public boolean[] answer(InvocationOnMock invocation) throws Throwable {
+                boolean[] result = new boolean[((List<?>) invocation.getArguments()[0]).size()];
+                Arrays.fill(result, true);
+                return result;
+            }
+        }).when(cryptography).checkProofOfWork(anyListOf(ObjectMessage.class), anyLong(), anyLong());
+        Singleton.initialize(cryptography);
+
+        inventory = mock(Inventory.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(1);
+                return null;
+            }
+        }).when(inventory).storeObject(any(ObjectMessage.class));
+        ctx = mock(InternalContext.class);
+        when(ctx.getInventory()).thenReturn(inventory);
+        when(ctx.getNetworkHandler()).thenReturn(mock(NetworkHandler.class));
+        when(ctx.getNetworkListener()).thenReturn(mock(NetworkHandler.MessageListener.class));
+    }
+
+    @After
+    public void tearDown() {
+        Singleton.initialize(new BouncyCryptography());
+    }
+
+    @Test(timeout = 30_000)
+    public void ensureOfferedObjectsAreStoredOnShutdown() {
+        ObjectPipeline pipeline = new ObjectPipeline(ctx, new ConcurrentHashMap<InventoryVector, Long>(),
+            mock(Runnable.class));
+        for (int i = 0; i < 200; i++) {
+            pipeline.offer(object(i));
+        }
+        pipeline.shutdown();
+
+        verify(inventory, times(200)).storeObject(any(ObjectMessage.class));
+    }
+
+    @Test(timeout = 30_000)
+    public void ensureMalformedObjectDoesNotDiscardTheWholeBatch() throws Exception {
+        ObjectMessage malformed = object(-1);
+        doThrow(new IllegalStateException("batch failed"))
+            .when(cryptography).checkProofOfWork(anyListOf(ObjectMessage.class), anyLong(), anyLong());
+        doNothing().when(cryptography).checkProofOfWork(any(ObjectMessage.class), anyLong(), anyLong());
+        doThrow(new IllegalStateException("malformed"))
+            .when(cryptography).checkProofOfWork(same(malformed), anyLong(), anyLong());
+
+        ObjectPipeline pipeline = new ObjectPipeline(ctx, new ConcurrentHashMap<InventoryVector, Long>(),
+            mock(Runnable.class));
+        pipeline.offer(malformed);
+        for (int i = 0; i < 10; i++) {
+            pipeline.offer(object(i));
+        }
+        pipeline.shutdown();
+
+        verify(inventory, times(10)).storeObject(any(ObjectMessage.class));
+        verify(inventory, never()).storeObject(malformed);
+    }
+
+    private static ObjectMessage object(int i) {
+        return new ObjectMessage.Builder()
+            .nonce(new byte[8])
+            .expiresTime(now(+300 + i))
+            .stream(1)
+            .payload(new GetPubkey(new BitmessageAddress("BM-2cW7cD5cDQJDNkE7ibmyTxfvGAmnPqa9Vt")))
+            .build();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.networking.nio;
+
+import ch.dissem.bitmessage.entity.BitmessageAddress;
+import ch.dissem.bitmessage.entity.MessagePayload;
+import ch.dissem.bitmessage.entity.NetworkMessage;
+import ch.dissem.bitmessage.entity.ObjectMessage;
+import ch.dissem.bitmessage.entity.payload.GetPubkey;
+import ch.dissem.bitmessage.utils.TestBase;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static ch.dissem.bitmessage.ports.NetworkHandler.HEADER_SIZE;
+import static ch.dissem.bitmessage.utils.UnixTime.now;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SerializedObjectTest extends TestBase {
+    @Test
+    public void ensureMessageIsSerializedLikeNetworkMessage() throws Exception {
+        ObjectMessage object = new ObjectMessage.Builder()
+            .nonce(new byte[8])
+            .expiresTime(now(+300))
+            .stream(1)
+            .payload(new GetPubkey(new BitmessageAddress("BM-2cW7cD5cDQJDNkE7ibmyTxfvGAmnPqa9Vt")))
+            .build();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new NetworkMessage(object).write(expected);
+
+        SerializedObject serialized = new SerializedObject(object);
+        ByteBuffer buffer = serialized.getMessageBuffer();
+        byte[] message = new byte[buffer.remaining()];
+        buffer.get(message);
+
+        assertEquals(MessagePayload.Command.OBJECT, serialized.getCommand());
+        assertEquals(expected.size(), serialized.size());
+        assertArrayEquals(expected.toByteArray(), message);
+        // as a payload, it must be written like the original object, without the header
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        serialized.write(payload);
+        ByteArrayOutputStream original = new ByteArrayOutputStream();
+        object.write(original);
+        assertArrayEquals(original.toByteArray(), payload.toByteArray());
+        assertEquals(expected.size() - HEADER_SIZE, payload.size());
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.repository;
+
+import ch.dissem.bitmessage.utils.Property;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A simple, bounded pool of JDBC connections. Connections are checked with {@link Connection#isValid(int)}
+ * before they are handed out, and their auto commit mode is restored when they are returned by closing them.
+ * <p>
+ * Prepared statements are cached per connection, so closing them only makes them available for the next
+ * call to <code>prepareStatement</code> with the same SQL on the same connection.
+ * </p>
+ */
+class ConnectionPool {
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionPool.class);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
+    private final String dbUrl;
+    private final String dbUser;
+    private final String dbPassword;
+    private final int maxSize;
+    private final long timeoutMillis;
+
+    private final Semaphore permits;
+    private final BlockingDeque<PhysicalConnection> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger validationFailures = new AtomicInteger();
+    private final AtomicInteger timeouts = new AtomicInteger();
+    private final AtomicInteger statementCacheHits = new AtomicInteger();
+    private final AtomicInteger statementCacheMisses = new AtomicInteger();
+
+    /**
+     * @param maxSize       the maximum number of connections in use at the same time
+     * @param timeoutMillis how long to wait for a free connection before giving up
+     */
+    ConnectionPool(String dbUrl, String dbUser, String dbPassword, int maxSize, long timeoutMillis) {
+        if (maxSize < 1) throw new IllegalArgumentException("maxSize must be at least 1");
+        this.dbUrl = dbUrl;
+        this.dbUser = dbUser;
+        this.dbPassword = dbPassword;
+        this.maxSize = maxSize;
+        this.timeoutMillis = timeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * @return a connection that is returned to the pool when it's closed.
+     * @throws SQLException if no connection could be created, or none became available in time.
+     */
+    Connection getConnection() throws SQLException {
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLException("No database connection available after " + timeoutMillis + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        try {
+            PhysicalConnection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                if (isValid(connection.connection)) {
+                    return wrap(connection);
+                }
+                validationFailures.incrementAndGet();
+                discard(connection);
+            }
+            connection = new PhysicalConnection(DriverManager.getConnection(dbUrl, dbUser, dbPassword));
+            created.incrementAndGet();
+            open.incrementAndGet();
+            return wrap(connection);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes all idle connections. Connections in use are closed when they're returned.
+     */
+    void close() {
+        PhysicalConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            discard(connection);
+        }
+    }
+
+    Property getStatus() {
+        return new Property("connectionPool", null,
+            new Property("maxSize", maxSize),
+            new Property("open", open.get()),
+            new Property("active", maxSize - permits.availablePermits()),
+            new Property("idle", idle.size()),
+            new Property("waiting", permits.getQueueLength()),
+            new Property("created", created.get()),
+            new Property("validationFailures", validationFailures.get()),
+            new Property("timeouts", timeouts.get()),
+            new Property("statementCacheHits", statementCacheHits.get()),
+            new Property("statementCacheMisses", statementCacheMisses.get())
+        );
+    }
+
+    private void release(PhysicalConnection physical) {
+        Connection connection = physical.connection;
+        try {
+            if (connection.isClosed()) {
+                open.decrementAndGet();
+            } else {
+                physical.closeLeakedStatements();
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                idle.offerFirst(physical);
+            }
+        } catch (SQLException e) {
+            LOG.debug("Discarding connection that couldn't be reset", e);
+            discard(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PhysicalConnection connection) {
+        open.decrementAndGet();
+        close(connection.connection);
+    }
+
+    private static void close(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            LOG.debug(e.getMessage(), e);
+        }
+    }
+
+    private static boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection wrap(PhysicalConnection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+            new Class<?>[]{Connection.class}, new PooledConnection(connection));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * The actual connection with its statement cache. It is only ever used by one thread at a time.
+     */
+    private static class PhysicalConnection {
+        private final Connection connection;
+        private final Map<String, CachedStatement> statements = new StatementCache();
+
+        private PhysicalConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Statements that weren't closed can't be reused, as they might still be in an unknown state.
+         */
+        private void closeLeakedStatements() {
+            Iterator<CachedStatement> iterator = statements.values().iterator();
+            while (iterator.hasNext()) {
+                CachedStatement statement = iterator.next();
+                if (statement.inUse) {
+                    iterator.remove();
+                    statement.inUse = false;
+                    statement.evict();
+                }
+            }
+        }
+    }
+
+    /**
+     * Least recently used statements are evicted when there are more than {@link ConnectionPool#STATEMENT_CACHE_SIZE}.
+     */
+    private static class StatementCache extends LinkedHashMap<String, CachedStatement> {
+        private static final long serialVersionUID = -2790463712651385237L;
+
+        private StatementCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+            if (size() > STATEMENT_CACHE_SIZE) {
+                eldest.getValue().evict();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static class CachedStatement {
+        private final PreparedStatement statement;
+        private boolean inUse;
+        private boolean evicted;
+
+        private CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        private void evict() {
+            evicted = true;
+            if (!inUse) {
+                close(statement);
+            }
+        }
+
+        private void release() {
+            inUse = false;
+            if (evicted) {
+                close(statement);
+            } else {
+                try {
+                    statement.clearParameters();
+                    statement.clearBatch();
+                } catch (SQLException e) {
+                    LOG.debug(e.getMessage(), e);
+                    evict();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the connection to the pool instead of closing it. Any use after closing fails, as the
+     * connection might already be used elsewhere.
+     */
+    private class PooledConnection implements InvocationHandler {
+        private final PhysicalConnection physical;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private PooledConnection(PhysicalConnection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (closed.compareAndSet(false, true)) {
+                        release(physical);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed.get() || physical.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + physical.connection;
+            }
+            if (closed.get()) {
+                throw new SQLException("Connection is closed");
+            }
+            if ("prepareStatement".equals(method.getName()) && isCacheable(method)) {
+                return prepareStatement(method, args);
+            }
+            return ConnectionPool.invoke(physical.connection, method, args);
+        }
+
+        /**
+         * Only <code>prepareStatement(String)</code> and <code>prepareStatement(String, int)</code>
+         * (for generated keys) are cached.
+         */
+        private boolean isCacheable(Method method) {
+            Class<?>[] types = method.getParameterTypes();
+            return types.length == 1 || types.length == 2 && types[1] == int.class;
+        }
+
+        private PreparedStatement prepareStatement(Method method, Object[] args) throws Throwable {
+            String key = args.length == 1 ? (String) args[0] : args[1] + ":" + args[0];
+            CachedStatement cached = physical.statements.get(key);
+            if (cached == null || cached.inUse) {
+                statementCacheMisses.incrementAndGet();
+                PreparedStatement statement = (PreparedStatement) ConnectionPool.invoke(physical.connection, method, args);
+                if (cached != null) {
+                    // the same statement is used twice at the same time, so this one can't be cached
+                    return statement;
+                }
+                cached = new CachedStatement(statement);
+                physical.statements.put(key, cached);
+            } else {
+                statementCacheHits.incrementAndGet();
+            }
+            cached.inUse = true;
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new PooledStatement(cached));
+        }
+    }
+
+    /**
+     * Returns the statement to the cache when closed.
+     */
+    private static class PooledStatement implements InvocationHandler {
+        private final CachedStatement cached;
+        private boolean closed;
+
+        private PooledStatement(CachedStatement cached) {
+            this.cached = cached;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        cached.release();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || cached.statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + cached.statement;
+            }
+            if (closed) {
+                throw new SQLException("Statement is closed");
+            }
+            return ConnectionPool.invoke(cached.statement, method, args);
+        }
+    }
+}
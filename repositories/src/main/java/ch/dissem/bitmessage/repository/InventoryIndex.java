@@ -0,0 +1,218 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.repository;
+
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+
+import java.util.Collection;
+
+/**
+ * A compact hash set of inventory vectors with their expiration time. Entries are kept in a single
+ * <code>long[]</code> as four longs for the 32 byte hash plus one for the expiration time, using linear probing.
+ * Each slot needs 40 bytes, no objects are allocated per entry. As the hashes are already uniformly distributed,
+ * their first eight bytes are directly used to find the slot.
+ * <p>
+ * The table grows by half when it's 80% full, so on average an entry needs about 60 bytes, compared to about
+ * 150 bytes for a <code>ConcurrentHashMap&lt;InventoryVector, Long&gt;</code>.
+ * </p>
+ */
+class InventoryIndex {
+    private static final int SLOT_SIZE = 5;
+    private static final int EXPIRES = 4;
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_LOAD_PERCENT = 80;
+    private static final int INITIAL_LOAD_PERCENT = 60;
+
+    private long[] table;
+    private int capacity;
+    private int size;
+
+    InventoryIndex() {
+        this(MIN_CAPACITY);
+    }
+
+    InventoryIndex(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Adds the hash, or updates its expiration time if it's already in the index.
+     *
+     * @param expires the expiration time, values smaller than one are stored as one as zero marks empty slots.
+     */
+    synchronized void put(byte[] hash, long expires) {
+        checkLength(hash);
+        if ((size + 1) * 100L > capacity * (long) MAX_LOAD_PERCENT) {
+            rehash(capacity + capacity / 2);
+        }
+        if (insert(table, capacity, hash, Math.max(1, expires))) {
+            size++;
+        }
+    }
+
+    synchronized boolean contains(byte[] hash) {
+        return hash.length == 32 && find(hash) >= 0;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Adds all inventory vectors that expire after the given time to the collection.
+     */
+    synchronized void collect(long expiresAfter, Collection<InventoryVector> target) {
+        for (int slot = 0; slot < table.length; slot += SLOT_SIZE) {
+            if (table[slot + EXPIRES] > expiresAfter) {
+                target.add(new InventoryVector(toHash(slot)));
+            }
+        }
+    }
+
+    /**
+     * Removes all entries that expired before the given time.
+     */
+    synchronized void removeExpired(long expiresBefore) {
+        int remaining = 0;
+        for (int slot = 0; slot < table.length; slot += SLOT_SIZE) {
+            long expires = table[slot + EXPIRES];
+            if (expires != 0 && expires >= expiresBefore) {
+                remaining++;
+            }
+        }
+        if (remaining == size) {
+            return;
+        }
+        long[] oldTable = table;
+        allocate(capacityFor(remaining));
+        for (int slot = 0; slot < oldTable.length; slot += SLOT_SIZE) {
+            long expires = oldTable[slot + EXPIRES];
+            if (expires != 0 && expires >= expiresBefore) {
+                System.arraycopy(oldTable, slot, table, findFree(table, capacity, oldTable[slot]), SLOT_SIZE);
+            }
+        }
+        size = remaining;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldTable = table;
+        allocate(newCapacity);
+        for (int slot = 0; slot < oldTable.length; slot += SLOT_SIZE) {
+            if (oldTable[slot + EXPIRES] != 0) {
+                System.arraycopy(oldTable, slot, table, findFree(table, capacity, oldTable[slot]), SLOT_SIZE);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.capacity = capacity;
+        this.table = new long[capacity * SLOT_SIZE];
+    }
+
+    /**
+     * @return the offset of the hash's slot in the table, or -1 if it isn't in the index.
+     */
+    private int find(byte[] hash) {
+        long k0 = getLong(hash, 0);
+        long k1 = getLong(hash, 8);
+        long k2 = getLong(hash, 16);
+        long k3 = getLong(hash, 24);
+        int index = indexFor(k0, capacity);
+        while (true) {
+            int slot = index * SLOT_SIZE;
+            if (table[slot + EXPIRES] == 0) {
+                return -1;
+            }
+            if (table[slot] == k0 && table[slot + 1] == k1 && table[slot + 2] == k2 && table[slot + 3] == k3) {
+                return slot;
+            }
+            index = index + 1 == capacity ? 0 : index + 1;
+        }
+    }
+
+    /**
+     * @return true if a new entry was added, false if an existing one was updated.
+     */
+    private static boolean insert(long[] table, int capacity, byte[] hash, long expires) {
+        long k0 = getLong(hash, 0);
+        long k1 = getLong(hash, 8);
+        long k2 = getLong(hash, 16);
+        long k3 = getLong(hash, 24);
+        int index = indexFor(k0, capacity);
+        while (true) {
+            int slot = index * SLOT_SIZE;
+            if (table[slot + EXPIRES] == 0) {
+                table[slot] = k0;
+                table[slot + 1] = k1;
+                table[slot + 2] = k2;
+                table[slot + 3] = k3;
+                table[slot + EXPIRES] = expires;
+                return true;
+            }
+            if (table[slot] == k0 && table[slot + 1] == k1 && table[slot + 2] == k2 && table[slot + 3] == k3) {
+                table[slot + EXPIRES] = expires;
+                return false;
+            }
+            index = index + 1 == capacity ? 0 : index + 1;
+        }
+    }
+
+    private static int findFree(long[] table, int capacity, long k0) {
+        int index = indexFor(k0, capacity);
+        while (table[index * SLOT_SIZE + EXPIRES] != 0) {
+            index = index + 1 == capacity ? 0 : index + 1;
+        }
+        return index * SLOT_SIZE;
+    }
+
+    /**
+     * Maps the upper 32 bits of the key onto [0, capacity) without needing a power of two capacity.
+     */
+    private static int indexFor(long k0, int capacity) {
+        return (int) (((k0 >>> 32) * capacity) >>> 32);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        return Math.max(MIN_CAPACITY, (int) (expectedSize * 100L / INITIAL_LOAD_PERCENT));
+    }
+
+    private byte[] toHash(int slot) {
+        byte[] hash = new byte[32];
+        for (int i = 0; i < 4; i++) {
+            long value = table[slot + i];
+            for (int j = 7; j >= 0; j--) {
+                hash[i * 8 + j] = (byte) value;
+                value >>>= 8;
+            }
+        }
+        return hash;
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long result = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            result = (result << 8) | (bytes[i] & 0xFF);
+        }
+        return result;
+    }
+
+    private static void checkLength(byte[] hash) {
+        if (hash.length != 32) {
+            throw new IllegalArgumentException("inventory vector hash must be 32 bytes, but was " + hash.length);
+        }
+    }
+}
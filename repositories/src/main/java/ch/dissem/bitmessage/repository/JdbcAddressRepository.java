@@ -29,45 +29,57 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.sql.*;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class JdbcAddressRepository extends JdbcHelper implements AddressRepository {
     private static final Logger LOG = LoggerFactory.getLogger(JdbcAddressRepository.class);
 
+    private volatile Cache cache = new Cache();
+
     public JdbcAddressRepository(JdbcConfig config) {
         super(config);
     }
 
     @Override
     public BitmessageAddress findContact(byte[] ripeOrTag) {
-        for (BitmessageAddress address : find("public_key is null")) {
-            if (address.getVersion() > 3) {
-                if (Arrays.equals(ripeOrTag, address.getTag())) return address;
-            } else {
-                if (Arrays.equals(ripeOrTag, address.getRipe())) return address;
-            }
-        }
-        return null;
+        Cache cache = this.cache;
+        return find(cache.contacts, "public_key IS NULL", ripeOrTag);
     }
 
     @Override
     public BitmessageAddress findIdentity(byte[] ripeOrTag) {
-        for (BitmessageAddress address : find("private_key is not null")) {
-            if (address.getVersion() > 3) {
-                if (Arrays.equals(ripeOrTag, address.getTag())) return address;
-            } else {
-                if (Arrays.equals(ripeOrTag, address.getRipe())) return address;
+        Cache cache = this.cache;
+        return find(cache.identities, "private_key IS NOT NULL", ripeOrTag);
+    }
+
+    private BitmessageAddress find(Map<ByteBuffer, BitmessageAddress> cache, String where, byte[] ripeOrTag) {
+        ByteBuffer key = ByteBuffer.wrap(ripeOrTag.clone());
+        BitmessageAddress result = cache.get(key);
+        if (result == null) {
+            // tags are only set for addresses of version 4 and later, which must not be found by their ripe
+            List<BitmessageAddress> found = find(where + " AND (tag = ? OR version < 4 AND ripe = ?)",
+                    ripeOrTag, ripeOrTag);
+            if (!found.isEmpty()) {
+                result = found.get(0);
+                cache.put(key, result);
             }
         }
-        return null;
+        return result == null ? null : new BitmessageAddress(result);
     }
 
     @Override
     public List<BitmessageAddress> getIdentities() {
-        return find("private_key IS NOT NULL");
+        Cache cache = this.cache;
+        if (cache.identityList == null) {
+            cache.identityList = find("private_key IS NOT NULL");
+        }
+        return copy(cache.identityList);
     }
 
     @Override
@@ -77,16 +89,33 @@ public class JdbcAddressRepository extends JdbcHelper implements AddressReposito
 
     @Override
     public List<BitmessageAddress> getSubscriptions() {
-        return find("subscribed = '1'");
+        Cache cache = this.cache;
+        if (cache.subscriptionList == null) {
+            cache.subscriptionList = find("subscribed = '1'");
+        }
+        return copy(cache.subscriptionList);
+    }
+
+    /**
+     * Cached addresses are shared between threads, so callers get copies they can change without affecting others.
+     */
+    private static List<BitmessageAddress> copy(List<BitmessageAddress> addresses) {
+        List<BitmessageAddress> result = new ArrayList<>(addresses.size());
+        for (BitmessageAddress address : addresses) {
+            result.add(new BitmessageAddress(address));
+        }
+        return result;
     }
 
     @Override
     public List<BitmessageAddress> getSubscriptions(long broadcastVersion) {
+        List<BitmessageAddress> result = getSubscriptions();
         if (broadcastVersion > 4) {
-            return find("subscribed = '1' AND version > 3");
+            result.removeIf(subscription -> subscription.getVersion() <= 3);
         } else {
-            return find("subscribed = '1' AND version <= 3");
+            result.removeIf(subscription -> subscription.getVersion() > 3);
         }
+        return result;
     }
 
     @Override
@@ -94,38 +123,40 @@ public class JdbcAddressRepository extends JdbcHelper implements AddressReposito
         return find("private_key IS NULL OR chan = '1'");
     }
 
-    private List<BitmessageAddress> find(String where) {
+    private List<BitmessageAddress> find(String where, Object... parameters) {
         List<BitmessageAddress> result = new LinkedList<>();
         try (
                 Connection connection = config.getConnection();
-                Statement stmt = connection.createStatement();
-                ResultSet rs = stmt.executeQuery("SELECT address, alias, public_key, private_key, subscribed, chan " +
-                        "FROM Address WHERE " + where)
+                PreparedStatement ps = connection.prepareStatement("SELECT address, alias, public_key, private_key, " +
+                        "subscribed, chan FROM Address WHERE " + where)
         ) {
-            while (rs.next()) {
-                BitmessageAddress address;
-
-                InputStream privateKeyStream = rs.getBinaryStream("private_key");
-                if (privateKeyStream == null) {
-                    address = new BitmessageAddress(rs.getString("address"));
-                    Blob publicKeyBlob = rs.getBlob("public_key");
-                    if (publicKeyBlob != null) {
-                        Pubkey pubkey = Factory.readPubkey(address.getVersion(), address.getStream(),
-                                publicKeyBlob.getBinaryStream(), (int) publicKeyBlob.length(), false);
-                        if (address.getVersion() == 4 && pubkey instanceof V3Pubkey) {
-                            pubkey = new V4Pubkey((V3Pubkey) pubkey);
+            setParameters(ps, parameters);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    BitmessageAddress address;
+
+                    InputStream privateKeyStream = rs.getBinaryStream("private_key");
+                    if (privateKeyStream == null) {
+                        address = new BitmessageAddress(rs.getString("address"));
+                        Blob publicKeyBlob = rs.getBlob("public_key");
+                        if (publicKeyBlob != null) {
+                            Pubkey pubkey = Factory.readPubkey(address.getVersion(), address.getStream(),
+                                    publicKeyBlob.getBinaryStream(), (int) publicKeyBlob.length(), false);
+                            if (address.getVersion() == 4 && pubkey instanceof V3Pubkey) {
+                                pubkey = new V4Pubkey((V3Pubkey) pubkey);
+                            }
+                            address.setPubkey(pubkey);
                         }
-                        address.setPubkey(pubkey);
+                    } else {
+                        PrivateKey privateKey = PrivateKey.read(privateKeyStream);
+                        address = new BitmessageAddress(privateKey);
                     }
-                } else {
-                    PrivateKey privateKey = PrivateKey.read(privateKeyStream);
-                    address = new BitmessageAddress(privateKey);
-                }
-                address.setAlias(rs.getString("alias"));
-                address.setSubscribed(rs.getBoolean("subscribed"));
-                address.setChan(rs.getBoolean("chan"));
+                    address.setAlias(rs.getString("alias"));
+                    address.setSubscribed(rs.getBoolean("subscribed"));
+                    address.setChan(rs.getBoolean("chan"));
 
-                result.add(address);
+                    result.add(address);
+                }
             }
         } catch (IOException | SQLException e) {
             LOG.error(e.getMessage(), e);
@@ -136,12 +167,13 @@ public class JdbcAddressRepository extends JdbcHelper implements AddressReposito
     private boolean exists(BitmessageAddress address) {
         try (
                 Connection connection = config.getConnection();
-                Statement stmt = connection.createStatement();
-                ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM Address " +
-                        "WHERE address='" + address.getAddress() + "'")
+                PreparedStatement ps = connection.prepareStatement("SELECT COUNT(*) FROM Address WHERE address=?")
         ) {
-            if (rs.next()) {
-                return rs.getInt(1) > 0;
+            ps.setString(1, address.getAddress());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1) > 0;
+                }
             }
         } catch (SQLException e) {
             LOG.error(e.getMessage(), e);
@@ -159,6 +191,8 @@ public class JdbcAddressRepository extends JdbcHelper implements AddressReposito
             }
         } catch (IOException | SQLException e) {
             LOG.error(e.getMessage(), e);
+        } finally {
+            cache = new Cache();
         }
     }
 
@@ -170,7 +204,7 @@ public class JdbcAddressRepository extends JdbcHelper implements AddressReposito
         if (address.getPrivateKey() != null) {
             statement.append(", private_key=?");
         }
-        statement.append(", subscribed=?, chan=? WHERE address=?");
+        statement.append(", subscribed=?, chan=?, ripe=?, tag=? WHERE address=?");
         try (
                 Connection connection = config.getConnection();
                 PreparedStatement ps = connection.prepareStatement(statement.toString())
@@ -185,6 +219,8 @@ public class JdbcAddressRepository extends JdbcHelper implements AddressReposito
             }
             ps.setBoolean(++i, address.isSubscribed());
             ps.setBoolean(++i, address.isChan());
+            ps.setBytes(++i, address.getRipe());
+            ps.setBytes(++i, address.getTag());
             ps.setString(++i, address.getAddress());
             ps.executeUpdate();
         }
@@ -194,8 +230,8 @@ public class JdbcAddressRepository extends JdbcHelper implements AddressReposito
         try (
                 Connection connection = config.getConnection();
                 PreparedStatement ps = connection.prepareStatement(
-                        "INSERT INTO Address (address, version, alias, public_key, private_key, subscribed, chan) " +
-                                "VALUES (?, ?, ?, ?, ?, ?, ?)")
+                        "INSERT INTO Address (address, version, alias, public_key, private_key, subscribed, chan, " +
+                                "ripe, tag) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")
         ) {
             ps.setString(1, address.getAddress());
             ps.setLong(2, address.getVersion());
@@ -204,6 +240,8 @@ public class JdbcAddressRepository extends JdbcHelper implements AddressReposito
             writeBlob(ps, 5, address.getPrivateKey());
             ps.setBoolean(6, address.isSubscribed());
             ps.setBoolean(7, address.isChan());
+            ps.setBytes(8, address.getRipe());
+            ps.setBytes(9, address.getTag());
             ps.executeUpdate();
         }
     }
@@ -222,18 +260,34 @@ public class JdbcAddressRepository extends JdbcHelper implements AddressReposito
     public void remove(BitmessageAddress address) {
         try (
                 Connection connection = config.getConnection();
-                Statement stmt = connection.createStatement()
+                PreparedStatement ps = connection.prepareStatement("DELETE FROM Address WHERE address = ?")
         ) {
-            stmt.executeUpdate("DELETE FROM Address WHERE address = '" + address.getAddress() + "'");
+            ps.setString(1, address.getAddress());
+            ps.executeUpdate();
         } catch (SQLException e) {
             LOG.error(e.getMessage(), e);
+        } finally {
+            cache = new Cache();
         }
     }
 
     @Override
     public BitmessageAddress getAddress(String address) {
-        List<BitmessageAddress> result = find("address = '" + address + "'");
+        List<BitmessageAddress> result = find("address = ?", address);
         if (result.size() > 0) return result.get(0);
         return null;
     }
+
+    /**
+     * Addresses that were already read and decoded, so e.g. the private keys of all identities don't need to be
+     * parsed for every received message. It's replaced whenever an address is saved or removed. A lookup that
+     * started before that will only fill the discarded instance, so no outdated address will be returned
+     * afterwards.
+     */
+    private static class Cache {
+        private final Map<ByteBuffer, BitmessageAddress> contacts = new ConcurrentHashMap<>();
+        private final Map<ByteBuffer, BitmessageAddress> identities = new ConcurrentHashMap<>();
+        private volatile List<BitmessageAddress> identityList;
+        private volatile List<BitmessageAddress> subscriptionList;
+    }
 }
@@ -16,36 +16,94 @@
 
 package ch.dissem.bitmessage.repository;
 
+import ch.dissem.bitmessage.utils.Property;
 import org.flywaydb.core.Flyway;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 /**
  * The base configuration for all JDBC based repositories. You should only make one instance,
  * as flyway initializes/updates the database at object creation.
+ * <p>
+ * Connections are taken from a built-in pool, unless a {@link DataSource} is provided (e.g. one
+ * managed by an application server), in which case it is responsible for pooling.
+ * </p>
  */
 public class JdbcConfig {
+    public static final int DEFAULT_POOL_SIZE = 10;
+    private static final long POOL_TIMEOUT_MILLIS = 30_000;
+
     protected final Flyway flyway;
     protected final String dbUrl;
     protected final String dbUser;
     protected final String dbPassword;
 
+    private final ConnectionPool pool;
+    private final DataSource dataSource;
+
     public JdbcConfig(String dbUrl, String dbUser, String dbPassword) {
+        this(dbUrl, dbUser, dbPassword, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param maxConnections the maximum number of connections that may be open at the same time
+     */
+    public JdbcConfig(String dbUrl, String dbUser, String dbPassword, int maxConnections) {
         this.dbUrl = dbUrl;
         this.dbUser = dbUser;
         this.dbPassword = dbPassword;
+        this.pool = new ConnectionPool(dbUrl, dbUser, dbPassword, maxConnections, POOL_TIMEOUT_MILLIS);
+        this.dataSource = null;
         this.flyway = new Flyway();
         flyway.setDataSource(dbUrl, dbUser, dbPassword);
         flyway.migrate();
     }
 
+    public JdbcConfig(DataSource dataSource) {
+        this.dbUrl = null;
+        this.dbUser = null;
+        this.dbPassword = null;
+        this.pool = null;
+        this.dataSource = dataSource;
+        this.flyway = new Flyway();
+        flyway.setDataSource(dataSource);
+        flyway.migrate();
+    }
+
     public JdbcConfig() {
         this("jdbc:h2:~/jabit;AUTO_SERVER=TRUE", "sa", null);
     }
 
+    /**
+     * @return a connection that must be closed after use, so it can be reused.
+     */
     public Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(dbUrl, dbUser, dbPassword);
+        if (pool != null) {
+            return pool.getConnection();
+        } else {
+            return dataSource.getConnection();
+        }
+    }
+
+    /**
+     * @return statistics of the built-in connection pool. If a DataSource was provided, please ask it instead.
+     */
+    public Property getStatus() {
+        if (pool != null) {
+            return pool.getStatus();
+        } else {
+            return new Property("connectionPool", dataSource.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Closes the idle connections of the built-in connection pool.
+     */
+    public void close() {
+        if (pool != null) {
+            pool.close();
+        }
     }
 }
@@ -51,4 +51,13 @@ public abstract class JdbcHelper {
             ps.setBytes(parameterIndex, os.toByteArray());
         }
     }
+
+    /**
+     * Sets the parameters of a prepared statement, starting with the first one.
+     */
+    public static void setParameters(PreparedStatement ps, Object... parameters) throws SQLException {
+        for (int i = 0; i < parameters.length; i++) {
+            ps.setObject(i + 1, parameters[i]);
+        }
+    }
 }
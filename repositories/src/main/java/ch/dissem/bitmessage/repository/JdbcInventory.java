@@ -25,51 +25,100 @@ import ch.dissem.bitmessage.ports.Inventory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import static ch.dissem.bitmessage.utils.SqlStrings.join;
+import static ch.dissem.bitmessage.utils.SqlStrings.placeholders;
+import static ch.dissem.bitmessage.utils.ThreadFactoryBuilder.pool;
 import static ch.dissem.bitmessage.utils.UnixTime.MINUTE;
 import static ch.dissem.bitmessage.utils.UnixTime.now;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 
-public class JdbcInventory extends JdbcHelper implements Inventory {
+/**
+ * Inventory backed by a JDBC database. By default every object is written right away. With write-behind enabled,
+ * stored objects are kept in memory and written in batches by a background thread, either when enough objects
+ * are pending or when the flush interval elapsed. In this mode, {@link #close()} must be called on shutdown
+ * (which {@link ch.dissem.bitmessage.BitmessageContext#shutdown()} does) so no pending object is lost.
+ * Objects stored after closing are written right away.
+ */
+public class JdbcInventory extends JdbcHelper implements Inventory, Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(JdbcInventory.class);
+    private static final String INSERT = "INSERT INTO Inventory " +
+            "(hash, stream, expires, data, type, version) VALUES (?, ?, ?, ?, ?, ?)";
+    /**
+     * The number of objects fetched per query by {@link #getObjects(List)}. Smaller requests are padded to
+     * {@link #SMALL_FETCH_SIZE} or this size, so there are only two different statements to cache.
+     */
+    private static final int FETCH_SIZE = 100;
+    private static final int SMALL_FETCH_SIZE = 10;
+
+    private final Map<Long, InventoryIndex> cache = new ConcurrentHashMap<>();
 
-    private final Map<Long, Map<InventoryVector, Long>> cache = new ConcurrentHashMap<>();
+    private final int flushSize;
+    private final Map<InventoryVector, ObjectMessage> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ScheduledExecutorService flusher;
 
     public JdbcInventory(JdbcConfig config) {
         super(config);
+        this.flushSize = 0;
+        this.flusher = null;
+    }
+
+    /**
+     * Creates an inventory that writes objects in batches.
+     *
+     * @param config              the database configuration
+     * @param flushSize           pending objects are written as soon as there are at least this many
+     * @param flushIntervalMillis pending objects are written at least this often
+     */
+    public JdbcInventory(JdbcConfig config, int flushSize, long flushIntervalMillis) {
+        super(config);
+        if (flushSize < 1) throw new IllegalArgumentException("flushSize must be at least 1");
+        if (flushIntervalMillis < 1) throw new IllegalArgumentException("flushIntervalMillis must be positive");
+        this.flushSize = flushSize;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(pool("inventory").lowPrio().daemon().build());
+        this.flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, MILLISECONDS);
     }
 
     @Override
     public List<InventoryVector> getInventory(long... streams) {
         List<InventoryVector> result = new LinkedList<>();
         for (long stream : streams) {
-            getCache(stream).entrySet().stream()
-                    .filter(e -> e.getValue() > now())
-                    .forEach(e -> result.add(e.getKey()));
+            getCache(stream).collect(now(), result);
         }
         return result;
     }
 
-    private Map<InventoryVector, Long> getCache(long stream) {
-        Map<InventoryVector, Long> result = cache.get(stream);
+    private InventoryIndex getCache(long stream) {
+        InventoryIndex result = cache.get(stream);
         if (result == null) {
             synchronized (cache) {
-                if (cache.get(stream) == null) {
-                    result = new ConcurrentHashMap<>();
+                result = cache.get(stream);
+                if (result == null) {
+                    result = new InventoryIndex();
                     cache.put(stream, result);
                     try (
                             Connection connection = config.getConnection();
-                            Statement stmt = connection.createStatement();
-                            ResultSet rs = stmt.executeQuery("SELECT hash, expires FROM Inventory " +
-                                    "WHERE expires > " + now(-5 * MINUTE) + " AND stream = " + stream)
+                            PreparedStatement ps = connection.prepareStatement("SELECT hash, expires FROM Inventory " +
+                                    "WHERE expires > ? AND stream = ?")
                     ) {
-                        while (rs.next()) {
-                            result.put(new InventoryVector(rs.getBytes("hash")), rs.getLong("expires"));
+                        ps.setLong(1, now(-5 * MINUTE));
+                        ps.setLong(2, stream);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            while (rs.next()) {
+                                result.put(rs.getBytes("hash"), rs.getLong("expires"));
+                            }
                         }
                     } catch (SQLException e) {
                         LOG.error(e.getMessage(), e);
@@ -82,81 +131,185 @@ public class JdbcInventory extends JdbcHelper implements Inventory {
 
     @Override
     public List<InventoryVector> getMissing(List<InventoryVector> offer, long... streams) {
-        for (long stream : streams) {
-            offer.removeAll(getCache(stream).keySet());
-        }
+        offer.removeIf(iv -> {
+            for (long stream : streams) {
+                if (getCache(stream).contains(iv.getHash())) {
+                    return true;
+                }
+            }
+            return false;
+        });
         return offer;
     }
 
     @Override
     public ObjectMessage getObject(InventoryVector vector) {
+        ObjectMessage pendingObject = pending.get(vector);
+        if (pendingObject != null) {
+            return pendingObject;
+        }
         try (
                 Connection connection = config.getConnection();
-                Statement stmt = connection.createStatement();
-                ResultSet rs = stmt.executeQuery("SELECT data, version FROM Inventory WHERE hash = X'" + vector + "'")
+                PreparedStatement ps = connection.prepareStatement("SELECT data, version FROM Inventory WHERE hash = ?")
         ) {
-            if (rs.next()) {
-                Blob data = rs.getBlob("data");
-                return Factory.getObjectMessage(rs.getInt("version"), data.getBinaryStream(), (int) data.length());
+            ps.setBytes(1, vector.getHash());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    Blob data = rs.getBlob("data");
+                    return Factory.getObjectMessage(rs.getInt("version"), data.getBinaryStream(), (int) data.length());
+                } else {
+                    LOG.info("Object requested that we don't have. IV: " + vector);
+                    return null;
+                }
+            }
+        } catch (Exception e) {
+            LOG.error(e.getMessage(), e);
+            throw new ApplicationException(e);
+        }
+    }
+
+    @Override
+    public List<ObjectMessage> getObjects(List<InventoryVector> vectors) {
+        List<ObjectMessage> result = new ArrayList<>(vectors.size());
+        List<byte[]> hashes = new ArrayList<>(vectors.size());
+        for (InventoryVector vector : vectors) {
+            ObjectMessage pendingObject = pending.get(vector);
+            if (pendingObject != null) {
+                result.add(pendingObject);
             } else {
-                LOG.info("Object requested that we don't have. IV: " + vector);
-                return null;
+                hashes.add(vector.getHash());
+            }
+        }
+        if (hashes.isEmpty()) {
+            return result;
+        }
+        try (Connection connection = config.getConnection()) {
+            for (int i = 0; i < hashes.size(); i += FETCH_SIZE) {
+                List<byte[]> chunk = new ArrayList<>(hashes.subList(i, Math.min(hashes.size(), i + FETCH_SIZE)));
+                int size = chunk.size() <= SMALL_FETCH_SIZE ? SMALL_FETCH_SIZE : FETCH_SIZE;
+                while (chunk.size() < size) {
+                    chunk.add(chunk.get(0));
+                }
+                try (PreparedStatement ps = connection.prepareStatement("SELECT data, version FROM Inventory " +
+                        "WHERE hash IN (" + placeholders(size) + ")")) {
+                    setParameters(ps, chunk.toArray());
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            Blob data = rs.getBlob("data");
+                            result.add(Factory.getObjectMessage(rs.getInt("version"), data.getBinaryStream(),
+                                    (int) data.length()));
+                        }
+                    }
+                }
             }
         } catch (Exception e) {
             LOG.error(e.getMessage(), e);
             throw new ApplicationException(e);
         }
+        if (result.size() < vectors.size()) {
+            LOG.info("Objects requested that we don't have: " + (vectors.size() - result.size()));
+        }
+        return result;
     }
 
     @Override
     public List<ObjectMessage> getObjects(long stream, long version, ObjectType... types) {
-        StringBuilder query = new StringBuilder("SELECT data, version FROM Inventory WHERE 1=1");
+        // Pending objects must be collected first: if they were written in the meantime, they'd be missing otherwise.
+        // Objects found in both places are taken from memory.
+        List<ObjectMessage> result = new LinkedList<>();
+        Set<InventoryVector> found = new HashSet<>();
+        for (ObjectMessage object : pending.values()) {
+            if (matches(object, stream, version, types)) {
+                result.add(object);
+                found.add(object.getInventoryVector());
+            }
+        }
+        StringBuilder query = new StringBuilder("SELECT hash, data, version FROM Inventory WHERE 1=1");
+        List<Long> parameters = new ArrayList<>(types.length + 2);
         if (stream > 0) {
-            query.append(" AND stream = ").append(stream);
+            query.append(" AND stream = ?");
+            parameters.add(stream);
         }
         if (version > 0) {
-            query.append(" AND version = ").append(version);
+            query.append(" AND version = ?");
+            parameters.add(version);
         }
         if (types.length > 0) {
-            query.append(" AND type IN (").append(join(types)).append(')');
+            query.append(" AND type IN (").append(placeholders(types.length)).append(')');
+            for (ObjectType type : types) {
+                parameters.add(type.getNumber());
+            }
         }
         try (
                 Connection connection = config.getConnection();
-                Statement stmt = connection.createStatement();
-                ResultSet rs = stmt.executeQuery(query.toString())
+                PreparedStatement ps = connection.prepareStatement(query.toString())
         ) {
-            List<ObjectMessage> result = new LinkedList<>();
-            while (rs.next()) {
-                Blob data = rs.getBlob("data");
-                result.add(Factory.getObjectMessage(rs.getInt("version"), data.getBinaryStream(), (int) data.length()));
+            setParameters(ps, parameters.toArray());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (found.contains(new InventoryVector(rs.getBytes("hash")))) {
+                        continue;
+                    }
+                    Blob data = rs.getBlob("data");
+                    result.add(Factory.getObjectMessage(rs.getInt("version"), data.getBinaryStream(), (int) data.length()));
+                }
+                return result;
             }
-            return result;
         } catch (Exception e) {
             LOG.error(e.getMessage(), e);
             throw new ApplicationException(e);
         }
     }
 
+    private static boolean matches(ObjectMessage object, long stream, long version, ObjectType... types) {
+        if (stream > 0 && object.getStream() != stream) {
+            return false;
+        }
+        if (version > 0 && object.getVersion() != version) {
+            return false;
+        }
+        if (types.length == 0) {
+            return true;
+        }
+        for (ObjectType type : types) {
+            if (type.getNumber() == object.getType()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public void storeObject(ObjectMessage object) {
-        if (getCache(object.getStream()).containsKey(object.getInventoryVector()))
+        if (contains(object))
+            return;
+
+        if (flusher != null && !flusher.isShutdown()) {
+            InventoryVector iv = object.getInventoryVector();
+            LOG.trace("Queueing object " + iv);
+            pending.put(iv, object);
+            getCache(object.getStream()).put(iv.getHash(), object.getExpiresTime());
+            if (pending.size() >= flushSize && flushRequested.compareAndSet(false, true)) {
+                try {
+                    flusher.execute(() -> {
+                        flushRequested.set(false);
+                        flush();
+                    });
+                } catch (RejectedExecutionException e) {
+                    // inventory is closing, the pending object will be written then
+                    flushRequested.set(false);
+                }
+            }
             return;
+        }
 
         try (
                 Connection connection = config.getConnection();
-                PreparedStatement ps = connection.prepareStatement("INSERT INTO Inventory " +
-                        "(hash, stream, expires, data, type, version) VALUES (?, ?, ?, ?, ?, ?)")
+                PreparedStatement ps = connection.prepareStatement(INSERT)
         ) {
-            InventoryVector iv = object.getInventoryVector();
-            LOG.trace("Storing object " + iv);
-            ps.setBytes(1, iv.getHash());
-            ps.setLong(2, object.getStream());
-            ps.setLong(3, object.getExpiresTime());
-            writeBlob(ps, 4, object);
-            ps.setLong(5, object.getType());
-            ps.setLong(6, object.getVersion());
+            insert(ps, object);
             ps.executeUpdate();
-            getCache(object.getStream()).put(iv, object.getExpiresTime());
+            getCache(object.getStream()).put(object.getInventoryVector().getHash(), object.getExpiresTime());
         } catch (SQLException e) {
             LOG.debug("Error storing object of type " + object.getPayload().getClass().getSimpleName(), e);
         } catch (Exception e) {
@@ -164,24 +317,101 @@ public class JdbcInventory extends JdbcHelper implements Inventory {
         }
     }
 
+    private void insert(PreparedStatement ps, ObjectMessage object) throws SQLException, IOException {
+        InventoryVector iv = object.getInventoryVector();
+        LOG.trace("Storing object " + iv);
+        ps.setBytes(1, iv.getHash());
+        ps.setLong(2, object.getStream());
+        ps.setLong(3, object.getExpiresTime());
+        writeBlob(ps, 4, object);
+        ps.setLong(5, object.getType());
+        ps.setLong(6, object.getVersion());
+    }
+
+    /**
+     * Writes all pending objects in one transaction. If the batch fails (e.g. because an object was already
+     * stored by someone else) the objects are written one by one, so only the offending ones are lost. Objects
+     * are only removed from the pending ones once they're handled, so if the database can't be reached at all
+     * they're retried with the next flush.
+     */
+    private synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<ObjectMessage> objects = new ArrayList<>(pending.values());
+        try (Connection connection = config.getConnection()) {
+            try (PreparedStatement ps = connection.prepareStatement(INSERT)) {
+                connection.setAutoCommit(false);
+                for (ObjectMessage object : objects) {
+                    insert(ps, object);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                connection.commit();
+                for (ObjectMessage object : objects) {
+                    pending.remove(object.getInventoryVector(), object);
+                }
+                LOG.debug("Stored " + objects.size() + " objects");
+            } catch (SQLException e) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+                LOG.debug("Batch insert failed, storing objects one by one", e);
+                insertSeparately(connection, objects);
+            }
+        } catch (Exception e) {
+            LOG.error("Could not write pending objects, " + pending.size() + " are kept for the next attempt", e);
+        }
+    }
+
+    private void insertSeparately(Connection connection, List<ObjectMessage> objects) throws SQLException,
+            IOException {
+        try (PreparedStatement ps = connection.prepareStatement(INSERT)) {
+            for (ObjectMessage object : objects) {
+                try {
+                    insert(ps, object);
+                    ps.executeUpdate();
+                } catch (SQLException e) {
+                    LOG.debug("Error storing object of type " + object.getPayload().getClass().getSimpleName(), e);
+                }
+                pending.remove(object.getInventoryVector(), object);
+            }
+        }
+    }
+
     @Override
     public boolean contains(ObjectMessage object) {
-        return getCache(object.getStream()).entrySet().stream()
-                .anyMatch(x -> x.getKey().equals(object.getInventoryVector()));
+        return getCache(object.getStream()).contains(object.getInventoryVector().getHash());
+    }
+
+    /**
+     * Writes all pending objects and stops the background writer. Does nothing if write-behind isn't enabled.
+     */
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(1, MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flush();
+        }
     }
 
     @Override
     public void cleanup() {
         try (
                 Connection connection = config.getConnection();
-                Statement stmt = connection.createStatement()
+                PreparedStatement ps = connection.prepareStatement("DELETE FROM Inventory WHERE expires < ?")
         ) {
-            stmt.executeUpdate("DELETE FROM Inventory WHERE expires < " + now(-5 * MINUTE));
+            ps.setLong(1, now(-5 * MINUTE));
+            ps.executeUpdate();
         } catch (SQLException e) {
             LOG.debug(e.getMessage(), e);
         }
-        for (Map<InventoryVector, Long> c : cache.values()) {
-            c.entrySet().removeIf(e -> e.getValue() < now(-5 * MINUTE));
+        for (InventoryIndex c : cache.values()) {
+            c.removeExpired(now(-5 * MINUTE));
         }
     }
 }
@@ -32,6 +32,7 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
+import static ch.dissem.bitmessage.repository.JdbcHelper.setParameters;
 import static ch.dissem.bitmessage.repository.JdbcHelper.writeBlob;
 
 public class JdbcMessageRepository extends AbstractMessageRepository implements MessageRepository {
@@ -45,10 +46,15 @@ public class JdbcMessageRepository extends AbstractMessageRepository implements
 
     @Override
     protected List<Label> findLabels(String where) {
+        return findLabels(where, new Object[0]);
+    }
+
+    @Override
+    protected List<Label> findLabels(String where, Object... parameters) {
         try (
                 Connection connection = config.getConnection()
         ) {
-            return findLabels(connection, where);
+            return findLabels(connection, where, parameters);
         } catch (SQLException e) {
             LOG.error(e.getMessage(), e);
         }
@@ -69,22 +75,25 @@ public class JdbcMessageRepository extends AbstractMessageRepository implements
 
     @Override
     public int countUnread(Label label) {
-        String where;
+        String where = "id IN (SELECT message_id FROM Message_Label WHERE label_id IN (" +
+                "SELECT id FROM Label WHERE type = ?))";
+        Object[] parameters;
         if (label == null) {
-            where = "";
+            parameters = new Object[]{Label.Type.UNREAD.name()};
         } else {
-            where = "id IN (SELECT message_id FROM Message_Label WHERE label_id=" + label.getId() + ") AND ";
+            where = "id IN (SELECT message_id FROM Message_Label WHERE label_id=?) AND " + where;
+            parameters = new Object[]{label.getId(), Label.Type.UNREAD.name()};
         }
-        where += "id IN (SELECT message_id FROM Message_Label WHERE label_id IN (" +
-                "SELECT id FROM Label WHERE type = '" + Label.Type.UNREAD.name() + "'))";
 
         try (
                 Connection connection = config.getConnection();
-                Statement stmt = connection.createStatement();
-                ResultSet rs = stmt.executeQuery("SELECT count(*) FROM Message WHERE " + where)
+                PreparedStatement ps = connection.prepareStatement("SELECT count(*) FROM Message WHERE " + where)
         ) {
-            if (rs.next()) {
-                return rs.getInt(1);
+            setParameters(ps, parameters);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
             }
         } catch (SQLException e) {
             LOG.error(e.getMessage(), e);
@@ -94,51 +103,67 @@ public class JdbcMessageRepository extends AbstractMessageRepository implements
 
     @Override
     protected List<Plaintext> find(String where) {
-        List<Plaintext> result = new LinkedList<>();
+        return find(where, new Object[0]);
+    }
+
+    @Override
+    protected List<Plaintext> find(String where, Object... parameters) {
+        List<Row> rows = new LinkedList<>();
         try (
                 Connection connection = config.getConnection();
-                Statement stmt = connection.createStatement();
-                ResultSet rs = stmt.executeQuery(
+                PreparedStatement ps = connection.prepareStatement(
                         "SELECT id, iv, type, sender, recipient, data, ack_data, sent, received, initial_hash, status, ttl, retries, next_try " +
                                 "FROM Message WHERE " + where)
         ) {
-            while (rs.next()) {
-                byte[] iv = rs.getBytes("iv");
-                InputStream data = rs.getBinaryStream("data");
-                Plaintext.Type type = Plaintext.Type.valueOf(rs.getString("type"));
-                Plaintext.Builder builder = Plaintext.readWithoutSignature(type, data);
-                long id = rs.getLong("id");
-                builder.id(id);
-                builder.IV(new InventoryVector(iv));
-                builder.from(ctx.getAddressRepository().getAddress(rs.getString("sender")));
-                builder.to(ctx.getAddressRepository().getAddress(rs.getString("recipient")));
-                builder.ackData(rs.getBytes("ack_data"));
-                builder.sent(rs.getLong("sent"));
-                builder.received(rs.getLong("received"));
-                builder.status(Plaintext.Status.valueOf(rs.getString("status")));
-                builder.ttl(rs.getLong("ttl"));
-                builder.retries(rs.getInt("retries"));
-                builder.nextTry(rs.getLong("next_try"));
-                builder.labels(findLabels(connection,
-                        "id IN (SELECT label_id FROM Message_Label WHERE message_id=" + id + ") ORDER BY ord"));
-                Plaintext message = builder.build();
-                message.setInitialHash(rs.getBytes("initial_hash"));
-                result.add(message);
+            setParameters(ps, parameters);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    byte[] iv = rs.getBytes("iv");
+                    InputStream data = rs.getBinaryStream("data");
+                    Plaintext.Type type = Plaintext.Type.valueOf(rs.getString("type"));
+                    Plaintext.Builder builder = Plaintext.readWithoutSignature(type, data);
+                    long id = rs.getLong("id");
+                    builder.id(id);
+                    builder.IV(new InventoryVector(iv));
+                    builder.ackData(rs.getBytes("ack_data"));
+                    builder.sent(rs.getLong("sent"));
+                    builder.received(rs.getLong("received"));
+                    builder.status(Plaintext.Status.valueOf(rs.getString("status")));
+                    builder.ttl(rs.getLong("ttl"));
+                    builder.retries(rs.getInt("retries"));
+                    builder.nextTry(rs.getLong("next_try"));
+                    builder.labels(findLabels(connection,
+                            "id IN (SELECT label_id FROM Message_Label WHERE message_id=?) ORDER BY ord", id));
+                    rows.add(new Row(builder, rs.getString("sender"), rs.getString("recipient"),
+                            rs.getBytes("initial_hash")));
+                }
             }
         } catch (IOException | SQLException e) {
             LOG.error(e.getMessage(), e);
         }
+        // The address repository needs a connection of its own, so addresses are only resolved after ours is
+        // returned to the pool. Otherwise, concurrent calls could exhaust the pool while waiting for each other.
+        List<Plaintext> result = new LinkedList<>();
+        for (Row row : rows) {
+            row.builder.from(ctx.getAddressRepository().getAddress(row.sender));
+            row.builder.to(ctx.getAddressRepository().getAddress(row.recipient));
+            Plaintext message = row.builder.build();
+            message.setInitialHash(row.initialHash);
+            result.add(message);
+        }
         return result;
     }
 
-    private List<Label> findLabels(Connection connection, String where) {
+    private List<Label> findLabels(Connection connection, String where, Object... parameters) {
         List<Label> result = new ArrayList<>();
         try (
-                Statement stmt = connection.createStatement();
-                ResultSet rs = stmt.executeQuery("SELECT id, label, type, color FROM Label WHERE " + where)
+                PreparedStatement ps = connection.prepareStatement("SELECT id, label, type, color FROM Label WHERE " + where)
         ) {
-            while (rs.next()) {
-                result.add(getLabel(rs));
+            setParameters(ps, parameters);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    result.add(getLabel(rs));
+                }
             }
         } catch (SQLException e) {
             LOG.error(e.getMessage(), e);
@@ -175,14 +200,15 @@ public class JdbcMessageRepository extends AbstractMessageRepository implements
 
     private void updateLabels(Connection connection, Plaintext message) throws SQLException {
         // remove existing labels
-        try (Statement stmt = connection.createStatement()) {
-            stmt.executeUpdate("DELETE FROM Message_Label WHERE message_id=" + message.getId());
+        try (PreparedStatement ps = connection.prepareStatement("DELETE FROM Message_Label WHERE message_id=?")) {
+            ps.setLong(1, (Long) message.getId());
+            ps.executeUpdate();
         }
         // save new labels
-        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO Message_Label VALUES (" +
-                message.getId() + ", ?)")) {
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO Message_Label VALUES (?, ?)")) {
+            ps.setLong(1, (Long) message.getId());
             for (Label label : message.getLabels()) {
-                ps.setLong(1, (Long) label.getId());
+                ps.setLong(2, (Long) label.getId());
                 ps.executeUpdate();
             }
         }
@@ -245,9 +271,15 @@ public class JdbcMessageRepository extends AbstractMessageRepository implements
     public void remove(Plaintext message) {
         try (Connection connection = config.getConnection()) {
             connection.setAutoCommit(false);
-            try (Statement stmt = connection.createStatement()) {
-                stmt.executeUpdate("DELETE FROM Message_Label WHERE message_id = " + message.getId());
-                stmt.executeUpdate("DELETE FROM Message WHERE id = " + message.getId());
+            try (
+                    PreparedStatement deleteLabels = connection.prepareStatement(
+                            "DELETE FROM Message_Label WHERE message_id = ?");
+                    PreparedStatement deleteMessage = connection.prepareStatement("DELETE FROM Message WHERE id = ?")
+            ) {
+                deleteLabels.setLong(1, (Long) message.getId());
+                deleteLabels.executeUpdate();
+                deleteMessage.setLong(1, (Long) message.getId());
+                deleteMessage.executeUpdate();
                 connection.commit();
             } catch (SQLException e) {
                 try {
@@ -261,4 +293,18 @@ public class JdbcMessageRepository extends AbstractMessageRepository implements
             LOG.error(e.getMessage(), e);
         }
     }
+
+    private static class Row {
+        private final Plaintext.Builder builder;
+        private final String sender;
+        private final String recipient;
+        private final byte[] initialHash;
+
+        private Row(Plaintext.Builder builder, String sender, String recipient, byte[] initialHash) {
+            this.builder = builder;
+            this.sender = sender;
+            this.recipient = recipient;
+            this.initialHash = initialHash;
+        }
+    }
 }
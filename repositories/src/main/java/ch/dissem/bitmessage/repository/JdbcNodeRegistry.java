@@ -5,7 +5,6 @@ import ch.dissem.bitmessage.exception.ApplicationException;
 import ch.dissem.bitmessage.ports.NodeRegistry;
 import ch.dissem.bitmessage.utils.Collections;
 import ch.dissem.bitmessage.utils.SqlStrings;
-import ch.dissem.bitmessage.utils.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,24 +43,28 @@ public class JdbcNodeRegistry extends JdbcHelper implements NodeRegistry {
         String query =
             "SELECT stream, address, port, services, time" +
                 " FROM Node" +
-                " WHERE stream = " + node.getStream() +
-                "   AND address = X'" + Strings.hex(node.getIPv6()) + "'" +
-                "   AND port = " + node.getPort();
+                " WHERE stream = ?" +
+                "   AND address = ?" +
+                "   AND port = ?";
         try (
             Connection connection = config.getConnection();
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery(query)
+            PreparedStatement ps = connection.prepareStatement(query)
         ) {
-            if (rs.next()) {
-                return new NetworkAddress.Builder()
-                    .stream(rs.getLong("stream"))
-                    .ipv6(rs.getBytes("address"))
-                    .port(rs.getInt("port"))
-                    .services(rs.getLong("services"))
-                    .time(rs.getLong("time"))
-                    .build();
-            } else {
-                return null;
+            ps.setLong(1, node.getStream());
+            ps.setBytes(2, node.getIPv6());
+            ps.setInt(3, node.getPort());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return new NetworkAddress.Builder()
+                        .stream(rs.getLong("stream"))
+                        .ipv6(rs.getBytes("address"))
+                        .port(rs.getInt("port"))
+                        .services(rs.getLong("services"))
+                        .time(rs.getLong("time"))
+                        .build();
+                } else {
+                    return null;
+                }
             }
         } catch (Exception e) {
             LOG.error(e.getMessage(), e);
@@ -74,24 +77,30 @@ public class JdbcNodeRegistry extends JdbcHelper implements NodeRegistry {
         List<NetworkAddress> result = new LinkedList<>();
         String query =
             "SELECT stream, address, port, services, time" +
-                " FROM Node WHERE stream IN (" + SqlStrings.join(streams) + ")" +
+                " FROM Node WHERE stream IN (" + SqlStrings.placeholders(streams.length) + ")" +
                 " ORDER BY TIME DESC" +
-                " LIMIT " + limit;
+                " LIMIT ?";
         try (
             Connection connection = config.getConnection();
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery(query)
+            PreparedStatement ps = connection.prepareStatement(query)
         ) {
-            while (rs.next()) {
-                result.add(
-                    new NetworkAddress.Builder()
-                        .stream(rs.getLong("stream"))
-                        .ipv6(rs.getBytes("address"))
-                        .port(rs.getInt("port"))
-                        .services(rs.getLong("services"))
-                        .time(rs.getLong("time"))
-                        .build()
-                );
+            int i = 0;
+            for (long stream : streams) {
+                ps.setLong(++i, stream);
+            }
+            ps.setInt(++i, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    result.add(
+                        new NetworkAddress.Builder()
+                            .stream(rs.getLong("stream"))
+                            .ipv6(rs.getBytes("address"))
+                            .port(rs.getInt("port"))
+                            .services(rs.getLong("services"))
+                            .time(rs.getLong("time"))
+                            .build()
+                    );
+                }
             }
         } catch (Exception e) {
             LOG.error(e.getMessage(), e);
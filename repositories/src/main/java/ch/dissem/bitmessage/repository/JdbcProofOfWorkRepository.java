@@ -14,8 +14,6 @@ import java.sql.*;
 import java.util.LinkedList;
 import java.util.List;
 
-import static ch.dissem.bitmessage.utils.Singleton.cryptography;
-
 /**
  * @author Christian Basler
  */
@@ -29,6 +27,11 @@ public class JdbcProofOfWorkRepository extends JdbcHelper implements ProofOfWork
 
     @Override
     public Item getItem(byte[] initialHash) {
+        ObjectMessage object;
+        long nonceTrialsPerByte;
+        long extraBytes;
+        long expirationTime;
+        Long messageId;
         try (
                 Connection connection = config.getConnection();
                 PreparedStatement ps = connection.prepareStatement("SELECT data, version, nonce_trials_per_byte, " +
@@ -38,21 +41,11 @@ public class JdbcProofOfWorkRepository extends JdbcHelper implements ProofOfWork
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
                     Blob data = rs.getBlob("data");
-                    if (rs.getObject("message_id") == null) {
-                        return new Item(
-                                Factory.getObjectMessage(rs.getInt("version"), data.getBinaryStream(), (int) data.length()),
-                                rs.getLong("nonce_trials_per_byte"),
-                                rs.getLong("extra_bytes")
-                        );
-                    } else {
-                        return new Item(
-                                Factory.getObjectMessage(rs.getInt("version"), data.getBinaryStream(), (int) data.length()),
-                                rs.getLong("nonce_trials_per_byte"),
-                                rs.getLong("extra_bytes"),
-                                rs.getLong("expiration_time"),
-                                ctx.getMessageRepository().getMessage(rs.getLong("message_id"))
-                        );
-                    }
+                    object = Factory.getObjectMessage(rs.getInt("version"), data.getBinaryStream(), (int) data.length());
+                    nonceTrialsPerByte = rs.getLong("nonce_trials_per_byte");
+                    extraBytes = rs.getLong("extra_bytes");
+                    expirationTime = rs.getLong("expiration_time");
+                    messageId = rs.getObject("message_id") == null ? null : rs.getLong("message_id");
                 } else {
                     throw new IllegalArgumentException("Object requested that we don't have. Initial hash: " + Strings.hex(initialHash));
                 }
@@ -61,14 +54,21 @@ public class JdbcProofOfWorkRepository extends JdbcHelper implements ProofOfWork
             LOG.error(e.getMessage(), e);
             throw new ApplicationException(e);
         }
+        // the message is loaded after the connection is returned to the pool, as it needs connections of its own
+        if (messageId == null) {
+            return new Item(object, nonceTrialsPerByte, extraBytes);
+        } else {
+            return new Item(object, nonceTrialsPerByte, extraBytes, expirationTime,
+                    ctx.getMessageRepository().getMessage(messageId));
+        }
     }
 
     @Override
     public List<byte[]> getItems() {
         try (
                 Connection connection = config.getConnection();
-                Statement stmt = connection.createStatement();
-                ResultSet rs = stmt.executeQuery("SELECT initial_hash FROM POW")
+                PreparedStatement ps = connection.prepareStatement("SELECT initial_hash FROM POW");
+                ResultSet rs = ps.executeQuery()
         ) {
             List<byte[]> result = new LinkedList<>();
             while (rs.next()) {
@@ -89,7 +89,7 @@ public class JdbcProofOfWorkRepository extends JdbcHelper implements ProofOfWork
                         "nonce_trials_per_byte, extra_bytes, expiration_time, message_id) " +
                         "VALUES (?, ?, ?, ?, ?, ?, ?)")
         ) {
-            ps.setBytes(1, cryptography().getInitialHash(item.object));
+            ps.setBytes(1, item.object.getInitialHash());
             writeBlob(ps, 2, item.object);
             ps.setLong(3, item.object.getVersion());
             ps.setLong(4, item.nonceTrialsPerByte);
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package db.migration;
+
+import ch.dissem.bitmessage.utils.AccessCounter;
+import ch.dissem.bitmessage.utils.Base58;
+import ch.dissem.bitmessage.utils.Bytes;
+import org.flywaydb.core.api.migration.jdbc.JdbcMigration;
+
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+
+import static ch.dissem.bitmessage.utils.Decode.bytes;
+import static ch.dissem.bitmessage.utils.Decode.varInt;
+
+/**
+ * Fills the ripe and tag columns of existing addresses. This can't be done in SQL, and as migrations run before
+ * the cryptography implementation is initialized, the hashes are calculated using the JDK directly.
+ */
+public class V3_5__Update_address_ripe_and_tag implements JdbcMigration {
+    @Override
+    public void migrate(Connection connection) throws Exception {
+        try (
+                PreparedStatement select = connection.prepareStatement("SELECT address FROM Address");
+                PreparedStatement update = connection.prepareStatement("UPDATE Address SET ripe=?, tag=? WHERE address=?");
+                ResultSet rs = select.executeQuery()
+        ) {
+            while (rs.next()) {
+                String address = rs.getString("address");
+                byte[] bytes = Base58.decode(address.substring(3));
+                ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+                AccessCounter counter = new AccessCounter();
+                long version = varInt(in, counter);
+                varInt(in, counter);
+                byte[] ripe = Bytes.expand(bytes(in, bytes.length - counter.length() - 4), 20);
+
+                update.setBytes(1, ripe);
+                if (version < 4) {
+                    update.setBytes(2, null);
+                } else {
+                    MessageDigest sha512 = MessageDigest.getInstance("SHA-512");
+                    sha512.update(bytes, 0, counter.length());
+                    sha512.update(ripe);
+                    byte[] checksum = sha512.digest(sha512.digest());
+                    update.setBytes(2, Arrays.copyOfRange(checksum, 32, 64));
+                }
+                update.setString(3, address);
+                update.executeUpdate();
+            }
+        }
+    }
+}
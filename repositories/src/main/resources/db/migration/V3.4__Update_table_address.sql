@@ -0,0 +1,4 @@
+ALTER TABLE Address ADD COLUMN ripe BINARY(20);
+ALTER TABLE Address ADD COLUMN tag BINARY(32);
+CREATE INDEX idx_address_ripe ON Address(ripe);
+CREATE INDEX idx_address_tag ON Address(tag);
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.repository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.Assert.*;
+
+public class ConnectionPoolTest {
+    private ConnectionPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new ConnectionPool("jdbc:h2:mem:pool;DB_CLOSE_DELAY=-1", "sa", null, 2, 100);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void ensureConnectionsAreReused() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            try (Connection connection = pool.getConnection()) {
+                assertTrue(connection.isValid(1));
+            }
+        }
+        assertEquals(1, pool.getStatus().getProperty("created").getValue());
+        assertEquals(1, pool.getStatus().getProperty("idle").getValue());
+        assertEquals(0, pool.getStatus().getProperty("active").getValue());
+    }
+
+    @Test
+    public void ensurePoolIsBounded() throws Exception {
+        Connection c1 = pool.getConnection();
+        Connection c2 = pool.getConnection();
+        assertEquals(2, pool.getStatus().getProperty("active").getValue());
+        try {
+            pool.getConnection();
+            fail("pool should be exhausted");
+        } catch (SQLException expected) {
+            assertEquals(1, pool.getStatus().getProperty("timeouts").getValue());
+        }
+        c1.close();
+        pool.getConnection().close();
+        c2.close();
+        assertEquals(2, pool.getStatus().getProperty("created").getValue());
+    }
+
+    @Test
+    public void ensureClosedConnectionCantBeUsed() throws Exception {
+        Connection connection = pool.getConnection();
+        connection.close();
+        connection.close();
+        assertTrue(connection.isClosed());
+        try {
+            connection.createStatement();
+            fail("closed connection must not be usable");
+        } catch (SQLException expected) {
+            assertEquals(1, pool.getStatus().getProperty("idle").getValue());
+        }
+    }
+
+    @Test
+    public void ensureAutoCommitIsRestored() throws Exception {
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+        }
+        try (Connection connection = pool.getConnection()) {
+            assertTrue(connection.getAutoCommit());
+        }
+    }
+
+    @Test
+    public void ensureBrokenConnectionsAreReplaced() throws Exception {
+        try (Connection connection = pool.getConnection()) {
+            connection.unwrap(Connection.class).close();
+        }
+        assertEquals(0, pool.getStatus().getProperty("open").getValue());
+        try (Connection connection = pool.getConnection()) {
+            assertTrue(connection.isValid(1));
+        }
+        assertEquals(2, pool.getStatus().getProperty("created").getValue());
+    }
+
+    @Test
+    public void ensurePreparedStatementsAreReused() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            try (
+                Connection connection = pool.getConnection();
+                PreparedStatement ps = connection.prepareStatement("SELECT ?")
+            ) {
+                ps.setInt(1, i);
+                try (ResultSet rs = ps.executeQuery()) {
+                    assertTrue(rs.next());
+                    assertEquals(i, rs.getInt(1));
+                }
+            }
+        }
+        assertEquals(1, pool.getStatus().getProperty("statementCacheMisses").getValue());
+        assertEquals(2, pool.getStatus().getProperty("statementCacheHits").getValue());
+    }
+
+    @Test
+    public void ensureStatementInUseIsNotSharedOrUsableAfterClose() throws Exception {
+        try (Connection connection = pool.getConnection()) {
+            PreparedStatement ps1 = connection.prepareStatement("SELECT ?");
+            PreparedStatement ps2 = connection.prepareStatement("SELECT ?");
+            ps1.setInt(1, 1);
+            ps2.setInt(1, 2);
+            try (ResultSet rs = ps1.executeQuery()) {
+                assertTrue(rs.next());
+                assertEquals(1, rs.getInt(1));
+            }
+            ps1.close();
+            ps2.close();
+            try {
+                ps1.executeQuery();
+                fail("closed statement must not be usable");
+            } catch (SQLException expected) {
+                assertTrue(ps1.isClosed());
+            }
+        }
+    }
+}
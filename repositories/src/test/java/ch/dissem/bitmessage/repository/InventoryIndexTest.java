@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 Christian Basler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.dissem.bitmessage.repository;
+
+import ch.dissem.bitmessage.entity.valueobject.InventoryVector;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class InventoryIndexTest {
+    private static final Random RANDOM = new Random();
+
+    @Test
+    public void ensureIndexBehavesLikeMap() {
+        InventoryIndex index = new InventoryIndex();
+        Map<InventoryVector, Long> reference = new HashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            byte[] hash = randomHash();
+            long expires = 1 + RANDOM.nextInt(1000);
+            index.put(hash, expires);
+            reference.put(new InventoryVector(hash), expires);
+        }
+        assertEquals(reference.size(), index.size());
+        for (InventoryVector iv : reference.keySet()) {
+            assertTrue(index.contains(iv.getHash()));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertFalse(index.contains(randomHash()));
+        }
+
+        List<InventoryVector> unexpired = new ArrayList<>();
+        index.collect(500, unexpired);
+        Set<InventoryVector> expected = new HashSet<>();
+        for (Map.Entry<InventoryVector, Long> e : reference.entrySet()) {
+            if (e.getValue() > 500) expected.add(e.getKey());
+        }
+        assertEquals(expected, new HashSet<>(unexpired));
+        assertEquals(expected.size(), unexpired.size());
+    }
+
+    @Test
+    public void ensureExistingEntryIsUpdated() {
+        InventoryIndex index = new InventoryIndex();
+        byte[] hash = randomHash();
+        index.put(hash, 100);
+        index.put(hash.clone(), 200);
+        assertEquals(1, index.size());
+
+        List<InventoryVector> result = new ArrayList<>();
+        index.collect(150, result);
+        assertEquals(Collections.singletonList(new InventoryVector(hash)), result);
+    }
+
+    @Test
+    public void ensureExpiredEntriesAreRemoved() {
+        InventoryIndex index = new InventoryIndex();
+        List<byte[]> hashes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            byte[] hash = randomHash();
+            hashes.add(hash);
+            index.put(hash, i + 1);
+        }
+        index.removeExpired(501);
+        assertEquals(500, index.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i >= 500, index.contains(hashes.get(i)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureOnlyInventoryVectorHashesAreAccepted() {
+        new InventoryIndex().put(new byte[20], 1);
+    }
+
+    private static byte[] randomHash() {
+        byte[] hash = new byte[32];
+        RANDOM.nextBytes(hash);
+        return hash;
+    }
+}
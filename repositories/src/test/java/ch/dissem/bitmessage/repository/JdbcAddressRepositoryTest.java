@@ -19,9 +19,12 @@ package ch.dissem.bitmessage.repository;
 import ch.dissem.bitmessage.entity.BitmessageAddress;
 import ch.dissem.bitmessage.entity.payload.Pubkey;
 import ch.dissem.bitmessage.entity.valueobject.PrivateKey;
+import db.migration.V3_5__Update_address_ripe_and_tag;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.sql.Connection;
+import java.sql.Statement;
 import java.util.List;
 
 import static ch.dissem.bitmessage.entity.payload.Pubkey.Feature.DOES_ACK;
@@ -176,6 +179,84 @@ public class JdbcAddressRepositoryTest extends TestBase {
         assertNotNull(address.getPrivateKey());
     }
 
+    @Test
+    public void ensureContactIsFoundByRipeForVersion3() {
+        BitmessageAddress address = new BitmessageAddress("BM-2D9Vc5rFxxR5vTi53T9gkLfemViHRMVLQZ");
+        assertEquals(3, address.getVersion());
+        repo.save(address);
+        assertEquals(address, repo.findContact(address.getRipe()));
+        assertNull(repo.findContact(new BitmessageAddress(CONTACT_A).getRipe()));
+    }
+
+    @Test
+    public void ensureCachedContactIsUpdatedOnSaveAndRemove() {
+        BitmessageAddress contact = new BitmessageAddress(CONTACT_A);
+        assertNotNull(repo.findContact(contact.getTag()));
+
+        repo.remove(contact);
+        assertNull(repo.findContact(contact.getTag()));
+
+        contact.setAlias("Test");
+        repo.save(contact);
+        assertEquals("Test", repo.findContact(contact.getTag()).getAlias());
+    }
+
+    @Test
+    public void ensureIdentitiesAreCachedUntilAnAddressIsSaved() throws Exception {
+        assertEquals(2, repo.getIdentities().size());
+        try (
+            Connection connection = config.getConnection();
+            Statement stmt = connection.createStatement()
+        ) {
+            stmt.executeUpdate("DELETE FROM Address WHERE private_key IS NOT NULL");
+        }
+        assertEquals(2, repo.getIdentities().size());
+
+        repo.save(new BitmessageAddress(new PrivateKey(false, 1, 1000, 1000)));
+        assertEquals(1, repo.getIdentities().size());
+    }
+
+    @Test
+    public void ensureCachedAddressesAreNotChangedByCallers() {
+        BitmessageAddress contact = new BitmessageAddress(CONTACT_A);
+        repo.findContact(contact.getTag()).setAlias("Unsaved");
+        assertNull(repo.findContact(contact.getTag()).getAlias());
+
+        repo.getIdentities().get(0).setSubscribed(true);
+        assertFalse(repo.getIdentities().get(0).isSubscribed());
+
+        addSubscription("BM-2cXxfcSetKnbHJX2Y85rSkaVpsdNUZ5q9h");
+        repo.getSubscriptions().get(0).setAlias("Unsaved");
+        assertNull(repo.getSubscriptions().get(0).getAlias());
+    }
+
+    @Test
+    public void ensureSubscriptionsAreCachedUntilAnAddressIsRemoved() {
+        addSubscription("BM-2cXxfcSetKnbHJX2Y85rSkaVpsdNUZ5q9h");
+        addSubscription("BM-2D9Vc5rFxxR5vTi53T9gkLfemViHRMVLQZ");
+        assertEquals(2, repo.getSubscriptions().size());
+        assertEquals(repo.getSubscriptions(5).get(0), repo.getSubscriptions(5).get(0));
+
+        repo.remove(repo.getAddress("BM-2D9Vc5rFxxR5vTi53T9gkLfemViHRMVLQZ"));
+        assertEquals(1, repo.getSubscriptions().size());
+        assertEquals(0, repo.getSubscriptions(4).size());
+    }
+
+    @Test
+    public void ensureMigrationFillsRipeAndTag() throws Exception {
+        try (
+            Connection connection = config.getConnection();
+            Statement stmt = connection.createStatement()
+        ) {
+            stmt.executeUpdate("UPDATE Address SET ripe = NULL, tag = NULL");
+            new V3_5__Update_address_ripe_and_tag().migrate(connection);
+        }
+        BitmessageAddress contact = new BitmessageAddress(CONTACT_A);
+        assertEquals(contact, repo.findContact(contact.getTag()));
+        BitmessageAddress identity = new BitmessageAddress(IDENTITY_B);
+        assertEquals(identity, repo.findIdentity(identity.getTag()));
+    }
+
     private void addSubscription(String address) {
         BitmessageAddress subscription = new BitmessageAddress(address);
         subscription.setSubscribed(true);
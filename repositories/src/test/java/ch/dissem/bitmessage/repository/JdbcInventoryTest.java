@@ -25,8 +25,14 @@ import ch.dissem.bitmessage.ports.Inventory;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static ch.dissem.bitmessage.entity.payload.ObjectType.GET_PUBKEY;
 import static ch.dissem.bitmessage.entity.payload.ObjectType.MSG;
@@ -102,6 +108,35 @@ public class JdbcInventoryTest extends TestBase {
         assertEquals(0, objects.size());
     }
 
+    @Test
+    public void ensureObjectsAreFetchedByInventoryVectors() throws Exception {
+        InventoryVector unknown = getObjectMessage(1, 200, getGetPubkey()).getInventoryVector();
+        List<ObjectMessage> objects = inventory.getObjects(Arrays.asList(inventoryVector1, unknown, inventoryVector2));
+        assertEquals(2, objects.size());
+        Set<InventoryVector> found = new HashSet<>();
+        for (ObjectMessage object : objects) {
+            found.add(object.getInventoryVector());
+        }
+        assertEquals(new HashSet<>(Arrays.asList(inventoryVector1, inventoryVector2)), found);
+    }
+
+    @Test
+    public void ensureManyObjectsAreFetchedByInventoryVectors() throws Exception {
+        Set<InventoryVector> expected = new HashSet<>();
+        for (int i = 0; i < 150; i++) {
+            ObjectMessage object = getObjectMessage(3, 300 + i, getGetPubkey());
+            inventory.storeObject(object);
+            expected.add(object.getInventoryVector());
+        }
+        List<ObjectMessage> objects = inventory.getObjects(new LinkedList<>(expected));
+        assertEquals(150, objects.size());
+        Set<InventoryVector> found = new HashSet<>();
+        for (ObjectMessage object : objects) {
+            found.add(object.getInventoryVector());
+        }
+        assertEquals(expected, found);
+    }
+
     @Test
     public void testStoreObject() throws Exception {
         ObjectMessage object = getObjectMessage(5, 0, getGetPubkey());
@@ -128,6 +163,93 @@ public class JdbcInventoryTest extends TestBase {
         assertNull(inventory.getObject(inventoryVectorIgnore));
     }
 
+    @Test
+    public void ensurePendingObjectsAreAvailableAndWrittenOnClose() {
+        JdbcInventory writeBehind = new JdbcInventory(config, 1000, 60_000);
+        ObjectMessage object = getObjectMessage(5, 300, getGetPubkey());
+        writeBehind.storeObject(object);
+
+        assertTrue(writeBehind.contains(object));
+        assertEquals(object, writeBehind.getObject(object.getInventoryVector()));
+        assertNull(inventory.getObject(object.getInventoryVector()));
+
+        writeBehind.close();
+        assertNotNull(inventory.getObject(object.getInventoryVector()));
+    }
+
+    @Test(timeout = 10_000)
+    public void ensurePendingObjectsAreWrittenWhenFlushSizeIsReached() throws Exception {
+        JdbcInventory writeBehind = new JdbcInventory(config, 2, 60_000);
+        ObjectMessage object1 = getObjectMessage(5, 300, getGetPubkey());
+        ObjectMessage object2 = getObjectMessage(5, 200, getGetPubkey());
+        writeBehind.storeObject(object1);
+        writeBehind.storeObject(object2);
+
+        while (inventory.getObject(object2.getInventoryVector()) == null) {
+            Thread.sleep(10);
+        }
+        assertNotNull(inventory.getObject(object1.getInventoryVector()));
+        writeBehind.close();
+    }
+
+    @Test
+    public void ensureObjectsAlreadyInDatabaseDontPreventOthersFromBeingWritten() {
+        JdbcInventory writeBehind = new JdbcInventory(config, 1000, 60_000);
+        ObjectMessage object = getObjectMessage(5, 300, getGetPubkey());
+        writeBehind.storeObject(object);
+        // the object is stored by someone else before it's written
+        inventory.storeObject(object);
+        ObjectMessage newObject = getObjectMessage(5, 200, getGetPubkey());
+        writeBehind.storeObject(newObject);
+
+        writeBehind.close();
+        assertNotNull(inventory.getObject(newObject.getInventoryVector()));
+    }
+
+    @Test
+    public void ensurePendingObjectsAreKeptIfDatabaseIsUnavailable() {
+        final AtomicBoolean unavailable = new AtomicBoolean();
+        JdbcInventory writeBehind = new JdbcInventory(new TestJdbcConfig() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                if (unavailable.get()) {
+                    throw new SQLException("database unavailable");
+                }
+                return super.getConnection();
+            }
+        }, 1000, 60_000);
+        ObjectMessage object = getObjectMessage(5, 300, getGetPubkey());
+        writeBehind.storeObject(object);
+
+        unavailable.set(true);
+        writeBehind.close();
+        assertEquals(object, writeBehind.getObject(object.getInventoryVector()));
+
+        unavailable.set(false);
+        writeBehind.close();
+        assertNotNull(inventory.getObject(object.getInventoryVector()));
+    }
+
+    @Test
+    public void ensurePendingObjectsAreFoundWithoutBeingWritten() {
+        JdbcInventory writeBehind = new JdbcInventory(config, 1000, 60_000);
+        ObjectMessage stored = getObjectMessage(5, 300, getGetPubkey());
+        inventory.storeObject(stored);
+        ObjectMessage pending = getObjectMessage(5, 200, getGetPubkey());
+        writeBehind.storeObject(pending);
+
+        Set<InventoryVector> found = new HashSet<>();
+        for (ObjectMessage object : writeBehind.getObjects(5, 0, GET_PUBKEY)) {
+            found.add(object.getInventoryVector());
+        }
+        assertEquals(new HashSet<>(Arrays.asList(stored.getInventoryVector(), pending.getInventoryVector())), found);
+        assertEquals(0, writeBehind.getObjects(5, 0, MSG).size());
+        assertEquals(1, inventory.getObjects(5, 0).size());
+
+        writeBehind.close();
+        assertEquals(2, inventory.getObjects(5, 0).size());
+    }
+
     private ObjectMessage getObjectMessage(long stream, long TTL, ObjectPayload payload) {
         return new ObjectMessage.Builder()
                 .nonce(new byte[8])
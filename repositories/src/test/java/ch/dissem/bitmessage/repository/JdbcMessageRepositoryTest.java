@@ -105,6 +105,23 @@ public class JdbcMessageRepositoryTest extends TestBase {
         assertEquals(Plaintext.Status.RECEIVED, m.getStatus());
     }
 
+    @Test(timeout = 20_000)
+    public void ensureMessagesCanBeFoundWithOnlyOneConnection() throws Exception {
+        JdbcConfig config = new JdbcConfig("jdbc:h2:mem:test;DB_CLOSE_DELAY=-1", "sa", null, 1);
+        AddressRepository addressRepo = new JdbcAddressRepository(config);
+        MessageRepository repo = new JdbcMessageRepository(config);
+        new InternalContext(new BitmessageContext.Builder()
+                .cryptography(cryptography())
+                .addressRepo(addressRepo)
+                .messageRepo(repo)
+        );
+
+        List<Plaintext> messages = repo.findMessages(inbox);
+        assertEquals(1, messages.size());
+        assertEquals(contactA, messages.get(0).getFrom());
+        config.close();
+    }
+
     @Test
     public void ensureUnreadMessagesCanBeFoundForAllLabels() {
         int unread = repo.countUnread(null);